@@ -0,0 +1,519 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.ProcessEngineException;
+import org.camunda.bpm.engine.ProcessEngines;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.cfg.TransactionState;
+import org.camunda.bpm.engine.impl.context.Context;
+import org.camunda.bpm.engine.impl.history.event.HistoricVariableUpdateEventEntity;
+import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
+import org.camunda.bpm.engine.impl.history.handler.DbHistoryEventHandler;
+import org.camunda.bpm.engine.impl.history.handler.HistoryEventHandler;
+import org.camunda.bpm.engine.impl.interceptor.CommandContext;
+import org.camunda.bpm.engine.impl.interceptor.Session;
+import org.camunda.bpm.engine.impl.interceptor.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * History event handler which takes the variable history (ACT_HI_VARINST and ACT_HI_DETAIL) out of the runtime
+ * transaction and writes it in batches on a dedicated writer thread.
+ * <p>
+ * With history level full, every variable insert, update and delete produces history rows which are otherwise
+ * flushed together with the runtime change, so they enlarge the operation graph sorted by
+ * {@link FastDbOperationManager}. This handler defers {@link HistoricVariableUpdateEventEntity variable events}
+ * instead: all of them are collected per command and written as one row of the {@link HistoryEventOutbox} in the
+ * same transaction. Once the transaction has committed, the row is offered to a bounded queue. The writer takes
+ * up to 'batchSize' rows at a time and, in a new transaction, claims them and passes their events to a
+ * {@link DbHistoryEventHandler}, so the history rows of many transactions are flushed in one JDBC batch.
+ * All other events are passed to the original handler right away.
+ * <p>
+ * Hand-off guarantees:
+ * <ul>
+ * <li>Events are durable as soon as the runtime transaction commits. If the queue stays full for longer than
+ * 'offerTimeoutMillis' (backpressure on the committing thread), the writer fails, or the engine stops, the
+ * row remains in the outbox and is picked up by the recovery sweep the writer runs whenever it is idle.</li>
+ * <li>Each row is written at most once, since it is claimed by deleting it in the transaction which writes it.</li>
+ * <li>A row which still fails on its own is skipped until the handler is restarted, so it does not block the
+ * others; see {@link #getFailures()}.</li>
+ * </ul>
+ * The writer stops with {@link #stop()}, or by itself once the engine has been closed. After a failure, it backs
+ * off exponentially up to 30 seconds before it retries.
+ * <p>
+ * Variable history becomes visible with a lag (see {@link #getLagMillis()}), so code which reads the variable
+ * history of its own transaction must not use this handler. Custom history event handlers only receive the
+ * events which are not deferred.
+ */
+public class BatchedHistoryEventHandler implements HistoryEventHandler
+{
+	private static final Logger LOG = LoggerFactory.getLogger(BatchedHistoryEventHandler.class);
+
+	// also the idle time after which the recovery sweep runs
+	private static final long POLL_INTERVAL_MILLIS = 500;
+	private static final long MAX_FAILURE_BACKOFF_MILLIS = 30_000;
+
+	private final ProcessEngineConfigurationImpl configuration;
+	private final HistoryEventOutbox outbox;
+	private final BlockingQueue<HistoryEventOutbox.Entry> queue;
+	private final int batchSize;
+	private final long offerTimeoutMillis;
+
+	private final HistoryEventHandler historyWriter = new DbHistoryEventHandler();
+	private final OutboxSessionFactory sessionFactory = new OutboxSessionFactory();
+
+	private HistoryEventHandler delegate;
+	private volatile Thread writer;
+	private volatile boolean running;
+
+	private final AtomicBoolean sweepPending = new AtomicBoolean(true);
+	private final Set<Long> skipped = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong eventsWritten = new AtomicLong();
+	private final AtomicLong batchesWritten = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong overflows = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private volatile long lastWriteLagMillis;
+
+	public BatchedHistoryEventHandler(ProcessEngineConfigurationImpl configuration, int queueCapacity, int batchSize, long offerTimeoutMillis)
+	{
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.configuration = configuration;
+		this.outbox = new HistoryEventOutbox(configuration.getDatabaseTablePrefix());
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+		this.offerTimeoutMillis = offerTimeoutMillis;
+	}
+
+	/**
+	 * Replace the history event handler of the configuration with this one. Can be called on a running engine.
+	 */
+	public void install()
+	{
+		delegate = configuration.getHistoryEventHandler();
+		configuration.getSessionFactories().put(OutboxSession.class, sessionFactory);
+		configuration.setHistoryEventHandler(this);
+	}
+
+	public void uninstall()
+	{
+		configuration.setHistoryEventHandler(delegate);
+		configuration.getSessionFactories().remove(OutboxSession.class);
+	}
+
+	/**
+	 * Create the outbox table if necessary and start the writer thread.
+	 */
+	public synchronized void start()
+	{
+		if (running)
+		{
+			return;
+		}
+
+		execute(commandContext ->
+		{
+			outbox.createTable(getConnection(commandContext));
+			return null;
+		});
+
+		running = true;
+		sweepPending.set(true);
+		writer = new Thread(this::run, "batched-history-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stop the writer thread. Rows which have not been written yet stay in the outbox.
+	 */
+	public synchronized void stop()
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		running = false;
+		writer.interrupt();
+		try
+		{
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+		queue.clear();
+	}
+
+	@Override
+	public void handleEvent(HistoryEvent historyEvent)
+	{
+		CommandContext commandContext = Context.getCommandContext();
+
+		if (historyEvent instanceof HistoricVariableUpdateEventEntity && commandContext != null)
+		{
+			commandContext.getSession(OutboxSession.class).add(historyEvent);
+		}
+		else
+		{
+			delegate.handleEvent(historyEvent);
+		}
+	}
+
+	@Override
+	public void handleEvents(List<HistoryEvent> historyEvents)
+	{
+		for (HistoryEvent historyEvent : historyEvents)
+		{
+			handleEvent(historyEvent);
+		}
+	}
+
+	private void enqueue(HistoryEventOutbox.Entry entry)
+	{
+		boolean queued = false;
+		try
+		{
+			queued = running && queue.offer(entry, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (!queued)
+		{
+			// the row is committed, so the sweep will find it
+			overflows.incrementAndGet();
+			sweepPending.set(true);
+		}
+	}
+
+	private void run()
+	{
+		int consecutiveFailures = 0;
+
+		while (running)
+		{
+			if (isEngineClosed())
+			{
+				// nothing stops the writer of a plugin, so it ends with its engine
+				LOG.info("Process engine closed, stopping batched history writer");
+				running = false;
+				return;
+			}
+
+			try
+			{
+				HistoryEventOutbox.Entry first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null)
+				{
+					List<HistoryEventOutbox.Entry> batch = new ArrayList<>(batchSize);
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					write(batch);
+				}
+
+				if (first == null || sweepPending.get())
+				{
+					sweep();
+				}
+				consecutiveFailures = 0;
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			catch (RuntimeException e)
+			{
+				failures.incrementAndGet();
+				consecutiveFailures++;
+
+				// e.g. the database is unavailable, so do not retry (and log) at the poll rate
+				long backoffMillis = Math.min(MAX_FAILURE_BACKOFF_MILLIS, POLL_INTERVAL_MILLIS << Math.min(consecutiveFailures - 1, 6));
+				LOG.error("Batched history writer failed {} time(s) in a row, retrying in {} ms", consecutiveFailures, backoffMillis, e);
+				sweepPending.set(true);
+				try
+				{
+					Thread.sleep(backoffMillis);
+				}
+				catch (InterruptedException interrupted)
+				{
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the engine of the configuration has been built and closed since.
+	 */
+	private boolean isEngineClosed()
+	{
+		ProcessEngine processEngine = configuration.getProcessEngine();
+		return processEngine != null && ProcessEngines.getProcessEngines().get(processEngine.getName()) != processEngine;
+	}
+
+	/**
+	 * Write all committed rows of the outbox which are not in the queue, e.g. because the queue was full or
+	 * the engine stopped before they were written.
+	 */
+	private void sweep()
+	{
+		sweepPending.set(false);
+
+		long afterId = 0;
+		while (running)
+		{
+			long from = afterId;
+			List<HistoryEventOutbox.Entry> pending = execute(commandContext -> outbox.readPending(getConnection(commandContext), from, batchSize));
+			if (pending.isEmpty())
+			{
+				return;
+			}
+
+			afterId = pending.get(pending.size() - 1).getId();
+			pending.removeIf(entry -> skipped.contains(entry.getId()));
+
+			recovered.addAndGet(write(pending));
+		}
+	}
+
+	/**
+	 * @return the number of entries written.
+	 */
+	private int write(List<HistoryEventOutbox.Entry> entries)
+	{
+		if (entries.isEmpty())
+		{
+			return 0;
+		}
+
+		// rows are numbered in flush order, which keeps the events of a variable in order
+		entries.sort(Comparator.comparingLong(HistoryEventOutbox.Entry::getId));
+
+		try
+		{
+			List<HistoryEventOutbox.Entry> written = execute(commandContext -> writeClaimed(commandContext, entries));
+
+			batchesWritten.incrementAndGet();
+			eventsWritten.addAndGet(written.stream().mapToLong(entry -> entry.getEvents().size()).sum());
+			lastWriteLagMillis = System.currentTimeMillis() - entries.get(0).getCreateTime();
+			return written.size();
+		}
+		catch (RuntimeException e)
+		{
+			if (entries.size() == 1)
+			{
+				failures.incrementAndGet();
+				skipped.add(entries.get(0).getId());
+				LOG.error("Unable to write history events of outbox entry {}", entries.get(0).getId(), e);
+				return 0;
+			}
+
+			// isolate the entry which caused the failure, the others are still written
+			int written = 0;
+			for (HistoryEventOutbox.Entry entry : entries)
+			{
+				written += write(new ArrayList<>(Collections.singletonList(entry)));
+			}
+			return written;
+		}
+	}
+
+	/**
+	 * @return the entries claimed by this transaction.
+	 */
+	private List<HistoryEventOutbox.Entry> writeClaimed(CommandContext commandContext, List<HistoryEventOutbox.Entry> entries) throws SQLException
+	{
+		boolean[] claimed = outbox.claim(getConnection(commandContext), entries);
+
+		List<HistoryEventOutbox.Entry> written = new ArrayList<>();
+		List<HistoryEvent> events = new ArrayList<>();
+		for (int i = 0; i < entries.size(); i++)
+		{
+			if (claimed[i])
+			{
+				written.add(entries.get(i));
+				events.addAll(entries.get(i).getEvents());
+			}
+		}
+
+		historyWriter.handleEvents(events);
+		return written;
+	}
+
+	private <T> T execute(SqlCommand<T> command)
+	{
+		return configuration.getCommandExecutorTxRequiresNew().execute(commandContext ->
+		{
+			try
+			{
+				return command.execute(commandContext);
+			}
+			catch (SQLException e)
+			{
+				throw new ProcessEngineException("Unable to access history event outbox", e);
+			}
+		});
+	}
+
+	private static Connection getConnection(CommandContext commandContext)
+	{
+		return commandContext.getDbSqlSession().getSqlSession().getConnection();
+	}
+
+	/**
+	 * @return the number of rows in the outbox, i.e. committed transactions whose variable history has not
+	 * been written yet.
+	 */
+	public long getOutboxSize()
+	{
+		return execute(commandContext -> outbox.count(getConnection(commandContext)));
+	}
+
+	/**
+	 * @return whether the writer thread is running.
+	 */
+	public boolean isRunning()
+	{
+		Thread current = writer;
+		return running && current != null && current.isAlive();
+	}
+
+	public int getQueueDepth()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * @return the age of the oldest row in the outbox in milliseconds, 0 if it is empty. Queued entries are still
+	 * in the outbox, so this also covers rows which missed the queue and wait for the recovery sweep.
+	 */
+	public long getLagMillis()
+	{
+		Long oldest = execute(commandContext -> outbox.oldestCreateTime(getConnection(commandContext)));
+		return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+	}
+
+	/**
+	 * @return the age of the oldest entry of the last batch written, in milliseconds.
+	 */
+	public long getLastWriteLagMillis()
+	{
+		return lastWriteLagMillis;
+	}
+
+	public long getEventsWritten()
+	{
+		return eventsWritten.get();
+	}
+
+	public long getBatchesWritten()
+	{
+		return batchesWritten.get();
+	}
+
+	/**
+	 * @return the number of entries written by the recovery sweep instead of from the queue.
+	 */
+	public long getRecovered()
+	{
+		return recovered.get();
+	}
+
+	public long getOverflows()
+	{
+		return overflows.get();
+	}
+
+	public long getFailures()
+	{
+		return failures.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("BatchedHistoryEventHandler[queued=%d, lag=%dms, events=%d, batches=%d, recovered=%d, overflows=%d, failures=%d]",
+				getQueueDepth(), getLagMillis(), getEventsWritten(), getBatchesWritten(), getRecovered(), getOverflows(), getFailures());
+	}
+
+	private interface SqlCommand<T>
+	{
+		T execute(CommandContext commandContext) throws SQLException;
+	}
+
+	/**
+	 * Collects the deferred events of one command and writes them to the outbox when the command is flushed.
+	 */
+	private class OutboxSession implements Session
+	{
+		private List<HistoryEvent> events = new ArrayList<>();
+
+		void add(HistoryEvent historyEvent)
+		{
+			events.add(historyEvent);
+		}
+
+		@Override
+		public void flush()
+		{
+			if (events.isEmpty())
+			{
+				return;
+			}
+
+			CommandContext commandContext = Context.getCommandContext();
+			HistoryEventOutbox.Entry entry;
+			try
+			{
+				entry = outbox.insert(getConnection(commandContext), events);
+			}
+			catch (SQLException e)
+			{
+				throw new ProcessEngineException("Unable to write history events to the outbox", e);
+			}
+			events = new ArrayList<>();
+
+			commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, context -> enqueue(entry));
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	private class OutboxSessionFactory implements SessionFactory
+	{
+		@Override
+		public Class<?> getSessionType()
+		{
+			return OutboxSession.class;
+		}
+
+		@Override
+		public Session openSession()
+		{
+			return new OutboxSession();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.HistoryService;
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.ProcessEngineConfiguration;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.cfg.StandaloneInMemProcessEngineConfiguration;
+import org.camunda.bpm.engine.runtime.ProcessInstance;
+import org.camunda.bpm.engine.test.Deployment;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchedHistoryEventHandlerTest
+{
+	private static final int INSTANCES = 20;
+	private static final int VARIABLES = 3;
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	private BatchedHistoryEventHandler handler;
+
+	@BeforeEach
+	public void installHandler()
+	{
+		handler = new BatchedHistoryEventHandler(extension.getProcessEngineConfiguration(), 100, 50, 100);
+		handler.install();
+		handler.start();
+	}
+
+	@AfterEach
+	public void uninstallHandler()
+	{
+		handler.stop();
+		handler.uninstall();
+	}
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void shouldWriteVariableHistoryOnWriterThread()
+	{
+		HistoryService historyService = extension.getHistoryService();
+
+		String[] processInstanceIds = new String[INSTANCES];
+		for (int i = 0; i < INSTANCES; i++)
+		{
+			processInstanceIds[i] = startInstance(i).getId();
+		}
+
+		// everything but the variable history is still written in the runtime transaction
+		assertThat(historyService.createHistoricProcessInstanceQuery().processInstanceIds(new HashSet<>(Arrays.asList(processInstanceIds))).count())
+				.isEqualTo(INSTANCES);
+
+		await(() -> historyService.createHistoricVariableInstanceQuery().processInstanceIdIn(processInstanceIds).count() == INSTANCES * VARIABLES);
+
+		assertThat(historyService.createHistoricDetailQuery().processInstanceIdIn(processInstanceIds).variableUpdates().count())
+				.isEqualTo(INSTANCES * VARIABLES);
+		assertThat(handler.getEventsWritten()).isEqualTo(INSTANCES * VARIABLES);
+		assertThat(handler.getOutboxSize()).isZero();
+		assertThat(handler.getQueueDepth()).isZero();
+		assertThat(handler.getFailures()).isZero();
+
+		System.out.println(handler);
+	}
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void shouldRecoverEventsLeftInOutbox()
+	{
+		HistoryService historyService = extension.getHistoryService();
+
+		// nothing takes the entry from the queue, so it stays in the outbox
+		handler.stop();
+		ProcessInstance processInstance = startInstance(0);
+
+		assertThat(handler.getOverflows()).isEqualTo(1);
+		assertThat(handler.getOutboxSize()).isEqualTo(1);
+		assertThat(handler.getQueueDepth()).isZero();
+		assertThat(historyService.createHistoricVariableInstanceQuery().processInstanceId(processInstance.getId()).count()).isZero();
+
+		// the lag counts the entry although it never made it into the queue
+		await(() -> handler.getLagMillis() >= 100);
+
+		handler.start();
+
+		// the counter is updated after the transaction which writes the history has committed
+		await(() -> handler.getRecovered() == 1);
+
+		assertThat(historyService.createHistoricVariableInstanceQuery().processInstanceId(processInstance.getId()).count()).isEqualTo(VARIABLES);
+		assertThat(handler.getOutboxSize()).isZero();
+		assertThat(handler.getLagMillis()).isZero();
+	}
+
+	@Test
+	public void shouldStopWriterWhenEngineIsClosed()
+	{
+		BatchedHistoryPlugin plugin = new BatchedHistoryPlugin();
+
+		ProcessEngineConfigurationImpl configuration = new StandaloneInMemProcessEngineConfiguration();
+		configuration.setProcessEngineName("batched-history-shutdown");
+		configuration.setJdbcUrl("jdbc:h2:mem:batched-history-shutdown");
+		configuration.setHistory(ProcessEngineConfiguration.HISTORY_FULL);
+		configuration.setProcessEnginePlugins(Collections.singletonList(plugin));
+
+		ProcessEngine processEngine = configuration.buildProcessEngine();
+		assertThat(plugin.getHandler().isRunning()).isTrue();
+
+		processEngine.close();
+
+		await(() -> !plugin.getHandler().isRunning());
+	}
+
+	private ProcessInstance startInstance(int i)
+	{
+		Map<String, Object> variables = new HashMap<>();
+		variables.put("name", "instance-" + i);
+		variables.put("counter", (long) i);
+		variables.put("payload", new byte[] {1, 2, 3});
+		return extension.getRuntimeService().startProcessInstanceByKey("testProcess", "batched-history-" + i, variables);
+	}
+
+	private static void await(BooleanSupplier condition)
+	{
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean())
+		{
+			assertThat(System.currentTimeMillis()).as("history written in time").isLessThan(deadline);
+			try
+			{
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
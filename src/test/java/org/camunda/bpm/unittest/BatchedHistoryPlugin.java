@@ -0,0 +1,70 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.cfg.AbstractProcessEnginePlugin;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+
+/**
+ * Engine plugin which installs a {@link BatchedHistoryEventHandler}, so the variable history is written in
+ * batches by a writer thread instead of in the runtime transaction.
+ * <p>
+ * The handler wraps whatever history event handler the engine has been configured with, and its writer is
+ * started once the engine has been built. The writer is a daemon thread which ends once the engine has been
+ * closed; events which have not been written by then remain in the outbox and are written after the next start.
+ */
+public class BatchedHistoryPlugin extends AbstractProcessEnginePlugin
+{
+	private int queueCapacity = 1000;
+	private int batchSize = 100;
+	private long offerTimeoutMillis = 100;
+
+	private BatchedHistoryEventHandler handler;
+
+	@Override
+	public void postInit(ProcessEngineConfigurationImpl configuration)
+	{
+		handler = new BatchedHistoryEventHandler(configuration, queueCapacity, batchSize, offerTimeoutMillis);
+		handler.install();
+	}
+
+	@Override
+	public void postProcessEngineBuild(ProcessEngine processEngine)
+	{
+		handler.start();
+	}
+
+	public BatchedHistoryEventHandler getHandler()
+	{
+		return handler;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity)
+	{
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+
+	public long getOfferTimeoutMillis()
+	{
+		return offerTimeoutMillis;
+	}
+
+	public void setOfferTimeoutMillis(long offerTimeoutMillis)
+	{
+		this.offerTimeoutMillis = offerTimeoutMillis;
+	}
+}
@@ -0,0 +1,159 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationManager;
+
+import java.util.*;
+
+/**
+ * Merges the operations of a DbOperationManager which target the same entity, before the flush is calculated.
+ * <p>
+ * Operations are matched by entity type and id:
+ * <ul>
+ * <li>INSERT + UPDATE: the update is dropped. The insert statement reads the current state of the entity, so
+ * it already writes the updated values. Its references are extended by the references of the update.</li>
+ * <li>INSERT + DELETE: both are dropped, the row never has to exist.</li>
+ * <li>UPDATE + DELETE: the update is dropped. The delete still checks the revision the update would have
+ * checked, so concurrent modifications are detected just the same.</li>
+ * </ul>
+ * The per-type sets of the manager never hold two operations for the same id, so only operations of different
+ * types have to be matched. The DbEntityManager already folds these pairs in its entity cache, so this only
+ * affects operations added to the operation manager directly.
+ */
+public class DbOperationCoalescer
+{
+	/**
+	 * @return the number of operations removed.
+	 */
+	public static int coalesce(DbOperationManager manager)
+	{
+		int kinds = (manager.inserts.isEmpty() ? 0 : 1) + (manager.updates.isEmpty() ? 0 : 1) + (manager.deletes.isEmpty() ? 0 : 1);
+		if (kinds < 2)
+		{
+			// the per-type sets never hold two operations for the same id, so there is nothing to merge
+			return 0;
+		}
+
+		Map<EntityKey, DbEntityOperation> inserts = index(manager.inserts);
+		Map<EntityKey, DbEntityOperation> updates = new HashMap<>();
+
+		int removed = 0;
+
+		for (SortedSet<DbEntityOperation> operations : manager.updates.values())
+		{
+			for (Iterator<DbEntityOperation> it = operations.iterator(); it.hasNext(); )
+			{
+				DbEntityOperation update = it.next();
+				EntityKey key = new EntityKey(update);
+
+				DbEntityOperation insert = inserts.get(key);
+				if (insert != null)
+				{
+					mergeReferences(insert, update);
+					it.remove();
+					removed++;
+				}
+				else
+				{
+					updates.put(key, update);
+				}
+			}
+		}
+
+		for (SortedSet<DbEntityOperation> operations : manager.deletes.values())
+		{
+			for (Iterator<DbEntityOperation> it = operations.iterator(); it.hasNext(); )
+			{
+				DbEntityOperation delete = it.next();
+				EntityKey key = new EntityKey(delete);
+
+				DbEntityOperation insert = inserts.remove(key);
+				if (insert != null)
+				{
+					manager.inserts.get(insert.getEntityType()).remove(insert);
+					it.remove();
+					removed += 2;
+					continue;
+				}
+
+				DbEntityOperation update = updates.remove(key);
+				if (update != null)
+				{
+					manager.updates.get(update.getEntityType()).remove(update);
+					removed++;
+				}
+			}
+		}
+
+		if (removed > 0)
+		{
+			removeEmpty(manager.inserts);
+			removeEmpty(manager.updates);
+			removeEmpty(manager.deletes);
+		}
+
+		return removed;
+	}
+
+	private static Map<EntityKey, DbEntityOperation> index(Map<Class<?>, SortedSet<DbEntityOperation>> operationsByType)
+	{
+		Map<EntityKey, DbEntityOperation> index = new HashMap<>();
+		for (SortedSet<DbEntityOperation> operations : operationsByType.values())
+		{
+			for (DbEntityOperation operation : operations)
+			{
+				index.put(new EntityKey(operation), operation);
+			}
+		}
+		return index;
+	}
+
+	private static void mergeReferences(DbEntityOperation target, DbEntityOperation source)
+	{
+		Set<String> sourceRefs = source.getFlushRelevantEntityReferences();
+		if (sourceRefs == null || sourceRefs.isEmpty())
+		{
+			return;
+		}
+
+		Set<String> targetRefs = target.getFlushRelevantEntityReferences();
+		Set<String> merged = targetRefs == null ? new HashSet<>() : new HashSet<>(targetRefs);
+		merged.addAll(sourceRefs);
+		merged.remove(target.getEntity().getId());
+		target.setFlushRelevantEntityReferences(merged);
+	}
+
+	private static void removeEmpty(Map<Class<?>, ? extends Collection<?>> operationsByType)
+	{
+		operationsByType.values().removeIf(Collection::isEmpty);
+	}
+
+	private static class EntityKey
+	{
+		private final Class<?> type;
+		private final String id;
+
+		EntityKey(DbEntityOperation operation)
+		{
+			this.type = operation.getEntityType();
+			this.id = operation.getEntity().getId();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof EntityKey))
+			{
+				return false;
+			}
+			EntityKey other = (EntityKey) o;
+			return type == other.type && Objects.equals(id, other.id);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * type.hashCode() + Objects.hashCode(id);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType.*;
+
+public class DbOperationCoalescerTest
+{
+	@Test
+	public void shouldCoalesceOperationsOnSameEntity()
+	{
+		FastDbOperationManager manager = new FastDbOperationManager();
+
+		// insert + update -> insert with the references of both
+		manager.addOperation(operation("a", INSERT, "x"));
+		manager.addOperation(operation("a", UPDATE, "y"));
+
+		// insert + delete -> nothing
+		manager.addOperation(operation("b", INSERT));
+		manager.addOperation(operation("b", DELETE));
+
+		// update + delete -> delete
+		manager.addOperation(operation("c", UPDATE));
+		manager.addOperation(operation("c", DELETE));
+
+		// untouched
+		manager.addOperation(operation("d", UPDATE));
+
+		assertThat(DbOperationCoalescer.coalesce(manager)).isEqualTo(4);
+
+		List<DbOperation> flush = manager.calculateFlush();
+
+		assertThat(flush.stream().map(DbOperationCoalescerTest::describe).collect(Collectors.toList()))
+				.containsExactlyInAnyOrder("a:INSERT", "c:DELETE", "d:UPDATE");
+
+		DbEntityOperation insert = (DbEntityOperation) flush.stream()
+				.filter(op -> op.getOperationType() == INSERT)
+				.findFirst()
+				.orElseThrow(IllegalStateException::new);
+
+		assertThat(insert.getFlushRelevantEntityReferences()).containsExactlyInAnyOrder("x", "y");
+	}
+
+	@Test
+	public void shouldNotTouchOperationsOnDifferentEntities()
+	{
+		FastDbOperationManager manager = new FastDbOperationManager();
+
+		manager.addOperation(operation("a", INSERT));
+		manager.addOperation(operation("b", UPDATE));
+		manager.addOperation(operation("c", DELETE));
+
+		assertThat(DbOperationCoalescer.coalesce(manager)).isZero();
+		assertThat(manager.calculateFlush()).hasSize(3);
+	}
+
+	private static DbEntityOperation operation(String id, DbOperationType operationType, String... references)
+	{
+		DbEntityOperation operation = new DbEntityOperation();
+		operation.setEntity(new FlushTrace.TraceEntity(id));
+		operation.setEntityType(FlushTrace.TraceEntity.class);
+		operation.setOperationType(operationType);
+		operation.setFlushRelevantEntityReferences(new HashSet<>(Arrays.asList(references)));
+		return operation;
+	}
+
+	private static String describe(DbOperation operation)
+	{
+		return ((DbEntityOperation) operation).getEntity().getId() + ":" + operation.getOperationType();
+	}
+}
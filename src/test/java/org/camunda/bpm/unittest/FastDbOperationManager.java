@@ -1,6 +1,7 @@
 package org.camunda.bpm.unittest;
 
 import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperation;
 import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationManager;
 
 import java.util.*;
@@ -13,9 +14,110 @@ public class FastDbOperationManager extends DbOperationManager
 	private static final int FAST_DB_OPERATIONS_THRESHOLD = 64;
 	private static final boolean USE_FAST_DB_OPERATIONS_SORT = true;
 	private static final boolean FALLBACK_TO_DEFAULT_DB_OPERATIONS_SORT = false;
+	private static final boolean USE_FLUSH_PLAN_CACHE = true;
+	private static final int FLUSH_PLAN_CACHE_CAPACITY = 256;
+	private static final boolean USE_OPERATION_COALESCING = false;
+
+	private static final FlushPlanCache ENGINE_FLUSH_PLAN_CACHE = new FlushPlanCache(FLUSH_PLAN_CACHE_CAPACITY);
 
 	private static final Function<String, Set<String>> SET_FACTORY = k -> new HashSet<>();
 
+	private static volatile FlushTraceRecorder flushTraceRecorder;
+
+	private final FlushPlanCache flushPlanCache;
+
+	/**
+	 * Creates a manager which shares the engine's plan cache (see {@link #getFlushPlanCache()}).
+	 */
+	public FastDbOperationManager()
+	{
+		this(USE_FLUSH_PLAN_CACHE ? ENGINE_FLUSH_PLAN_CACHE : null);
+	}
+
+	/**
+	 * Creates a manager which re-uses plans from the given cache, or always sorts if it is null.
+	 */
+	public FastDbOperationManager(FlushPlanCache flushPlanCache)
+	{
+		this.flushPlanCache = flushPlanCache;
+	}
+
+	/**
+	 * Hit rate and fallback statistics of the plan cache shared by the managers of the engine.
+	 */
+	public static FlushPlanCache getFlushPlanCache()
+	{
+		return ENGINE_FLUSH_PLAN_CACHE;
+	}
+
+	/**
+	 * Install a recorder which dumps the operation graph of selected flushes to a trace file.
+	 * Pass null to stop recording.
+	 */
+	public static void setFlushTraceRecorder(FlushTraceRecorder recorder)
+	{
+		flushTraceRecorder = recorder;
+	}
+
+	/**
+	 * Merge operations on the same entity (see {@link DbOperationCoalescer}) before calculating the flush,
+	 * so that fewer statements are sent. Off by default: the DbEntityManager already folds such operations,
+	 * so this only pays off when operations are added to the manager directly.
+	 */
+	@Override
+	public List<DbOperation> calculateFlush()
+	{
+		if (USE_OPERATION_COALESCING)
+		{
+			DbOperationCoalescer.coalesce(this);
+		}
+		return super.calculateFlush();
+	}
+
+	/**
+	 * Sort the incoming set of DbEntityOperations, re-using the plan of a previous flush with
+	 * the same shape if there is one (see {@link FlushPlanCache}) and sorting topologically otherwise.
+	 */
+	@Override
+	protected List<DbEntityOperation> sortByReferences(SortedSet<DbEntityOperation> preSorted)
+	{
+		int size = preSorted.size();
+
+		FlushTraceRecorder recorder = flushTraceRecorder;
+		if (recorder != null)
+		{
+			recorder.record(preSorted);
+		}
+
+		if (!USE_FAST_DB_OPERATIONS_SORT || size < FAST_DB_OPERATIONS_THRESHOLD)
+		{
+			return super.sortByReferences(preSorted);
+		}
+
+		if (flushPlanCache == null)
+		{
+			return sortTopologically(preSorted);
+		}
+
+		// flushes with the same shape only differ in ids, so re-use the order computed for a previous one
+		FlushPlanCache.Shape shape = FlushPlanCache.Shape.of(preSorted);
+		if (shape == null)
+		{
+			flushPlanCache.countUncacheable();
+			return sortTopologically(preSorted);
+		}
+
+		List<DbEntityOperation> cached = flushPlanCache.lookup(shape);
+		if (cached != null)
+		{
+			return cached;
+		}
+
+		List<DbEntityOperation> opList = sortTopologically(preSorted);
+		flushPlanCache.put(shape, opList);
+		return opList;
+	}
+
 	/**
 	 * Sort the incoming set of DbEntityOperations using topological sort.
 	 * <p>
@@ -40,16 +142,10 @@ public class FastDbOperationManager extends DbOperationManager
 	 * When the processing queue is empty, the resultant list of operations is properly sorted with
 	 * dependencies being respected.
 	 */
-	@Override
-	protected List<DbEntityOperation> sortByReferences(SortedSet<DbEntityOperation> preSorted)
+	private List<DbEntityOperation> sortTopologically(SortedSet<DbEntityOperation> preSorted)
 	{
 		int size = preSorted.size();
 
-		if (!USE_FAST_DB_OPERATIONS_SORT || size < FAST_DB_OPERATIONS_THRESHOLD)
-		{
-			return super.sortByReferences(preSorted);
-		}
-
 		List<DbEntityOperation> opList = new ArrayList<>(size);
 
 		Map<String, DbEntityOperation> all = new HashMap<>();
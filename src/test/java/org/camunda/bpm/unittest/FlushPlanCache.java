@@ -0,0 +1,331 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType.INSERT;
+
+/**
+ * LRU cache of sort plans keyed by the shape of a flush.
+ * <p>
+ * The shape of a pre-sorted set of operations consists of its entity type, its operation type and, for every
+ * operation, the positions (in the pre-sorted set) of the other operations it references. References to entities
+ * outside the set are left out, since they do not constrain the order. Two flushes with the same shape only differ
+ * in their ids, so the order computed for one is valid for the other: a plan is simply the list of positions in
+ * sorted order, which is re-bound to the operations of the next flush with the same shape.
+ * <p>
+ * Before a plan is used, it is checked against the references of the shape. On any mismatch, the plan is dropped
+ * and the caller falls back to a full sort.
+ */
+public class FlushPlanCache
+{
+	private final int capacity;
+	private final Map<Shape, int[]> plans;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+	private final AtomicLong uncacheable = new AtomicLong();
+
+	public FlushPlanCache(int capacity)
+	{
+		this.capacity = capacity;
+		this.plans = new LinkedHashMap<Shape, int[]>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Shape, int[]> eldest)
+			{
+				return size() > FlushPlanCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the operations in the order of the cached plan for their shape, or null if there is none.
+	 */
+	public List<DbEntityOperation> lookup(Shape shape)
+	{
+		int[] plan;
+		synchronized (plans)
+		{
+			plan = plans.get(shape);
+		}
+
+		if (plan == null)
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+
+		if (!shape.isValidPlan(plan))
+		{
+			synchronized (plans)
+			{
+				plans.remove(shape);
+			}
+			fallbacks.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+
+		List<DbEntityOperation> sorted = new ArrayList<>(plan.length);
+		for (int index : plan)
+		{
+			sorted.add(shape.operations[index]);
+		}
+		return sorted;
+	}
+
+	public void put(Shape shape, List<DbEntityOperation> sorted)
+	{
+		int[] plan = shape.toPlan(sorted);
+		if (plan == null)
+		{
+			return;
+		}
+
+		synchronized (plans)
+		{
+			plans.put(shape.detached(), plan);
+		}
+	}
+
+	void countUncacheable()
+	{
+		uncacheable.incrementAndGet();
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Number of cached plans which did not pass the safety check and were replaced by a full sort.
+	 */
+	public long getFallbacks()
+	{
+		return fallbacks.get();
+	}
+
+	/**
+	 * Number of flushes which could not be cached, because they mixed entity or operation types
+	 * or contained several operations for the same entity.
+	 */
+	public long getUncacheable()
+	{
+		return uncacheable.get();
+	}
+
+	public double getHitRate()
+	{
+		long lookups = hits.get() + misses.get() + fallbacks.get();
+		return lookups == 0 ? 0.0 : (double) hits.get() / lookups;
+	}
+
+	public int size()
+	{
+		synchronized (plans)
+		{
+			return plans.size();
+		}
+	}
+
+	public void clear()
+	{
+		synchronized (plans)
+		{
+			plans.clear();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("FlushPlanCache[size=%d, hits=%d, misses=%d, fallbacks=%d, uncacheable=%d, hitRate=%.1f%%]",
+				size(), getHits(), getMisses(), getFallbacks(), getUncacheable(), getHitRate() * 100);
+	}
+
+	public static class Shape
+	{
+		private final String entityType;
+		private final DbOperationType operationType;
+		// per operation: number of references followed by the sorted positions of the referenced operations
+		private final int[] references;
+		private final int hash;
+
+		private final DbEntityOperation[] operations;
+		private final Map<DbEntityOperation, Integer> positions;
+
+		private Shape(String entityType, DbOperationType operationType, int[] references, DbEntityOperation[] operations, Map<DbEntityOperation, Integer> positions)
+		{
+			this.entityType = entityType;
+			this.operationType = operationType;
+			this.references = references;
+			this.operations = operations;
+			this.positions = positions;
+			this.hash = 31 * (31 * entityType.hashCode() + operationType.hashCode()) + Arrays.hashCode(references);
+		}
+
+		/**
+		 * @return the shape of the given operations, or null if they cannot be cached.
+		 */
+		public static Shape of(SortedSet<DbEntityOperation> preSorted)
+		{
+			int size = preSorted.size();
+			if (size == 0)
+			{
+				return null;
+			}
+
+			DbEntityOperation[] operations = preSorted.toArray(new DbEntityOperation[size]);
+
+			Class<?> entityType = operations[0].getEntityType();
+			DbOperationType operationType = operations[0].getOperationType();
+
+			Map<String, Integer> indexes = new HashMap<>(size * 2);
+			Map<DbEntityOperation, Integer> positions = new IdentityHashMap<>(size * 2);
+
+			int referenceCount = 0;
+			for (int i = 0; i < size; i++)
+			{
+				DbEntityOperation operation = operations[i];
+				if (operation.getEntityType() != entityType || operation.getOperationType() != operationType
+						|| indexes.put(operation.getEntity().getId(), i) != null)
+				{
+					return null;
+				}
+				positions.put(operation, i);
+
+				Set<String> refs = operation.getFlushRelevantEntityReferences();
+				referenceCount += refs == null ? 0 : refs.size();
+			}
+
+			int[] references = new int[size + referenceCount];
+			int offset = 0;
+
+			for (int i = 0; i < size; i++)
+			{
+				int countOffset = offset++;
+				Set<String> refs = operations[i].getFlushRelevantEntityReferences();
+
+				if (refs != null)
+				{
+					for (String ref : refs)
+					{
+						Integer index = indexes.get(ref);
+						if (index != null && index != i)
+						{
+							references[offset++] = index;
+						}
+					}
+				}
+
+				references[countOffset] = offset - countOffset - 1;
+				Arrays.sort(references, countOffset + 1, offset);
+			}
+
+			return new Shape(entityType.getName(), operationType, Arrays.copyOf(references, offset), operations, positions);
+		}
+
+		/**
+		 * Copy of this shape which does not hold on to the operations of the flush, used as the cache key.
+		 */
+		Shape detached()
+		{
+			return new Shape(entityType, operationType, references, null, null);
+		}
+
+		int[] toPlan(List<DbEntityOperation> sorted)
+		{
+			if (sorted.size() != operations.length)
+			{
+				return null;
+			}
+
+			int[] plan = new int[sorted.size()];
+			for (int i = 0; i < plan.length; i++)
+			{
+				Integer position = positions.get(sorted.get(i));
+				if (position == null)
+				{
+					return null;
+				}
+				plan[i] = position;
+			}
+			return plan;
+		}
+
+		/**
+		 * Check that the plan is a permutation of the operations which respects every reference of this shape.
+		 */
+		boolean isValidPlan(int[] plan)
+		{
+			int size = operations.length;
+			if (plan.length != size)
+			{
+				return false;
+			}
+
+			int[] order = new int[size];
+			Arrays.fill(order, -1);
+			for (int i = 0; i < size; i++)
+			{
+				if (plan[i] < 0 || plan[i] >= size || order[plan[i]] != -1)
+				{
+					return false;
+				}
+				order[plan[i]] = i;
+			}
+
+			int offset = 0;
+			for (int i = 0; i < size; i++)
+			{
+				int count = references[offset++];
+				for (int j = 0; j < count; j++)
+				{
+					int ref = references[offset++];
+					boolean valid = operationType == INSERT ? order[ref] < order[i] : order[i] < order[ref];
+					if (!valid)
+					{
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+			{
+				return true;
+			}
+			if (!(o instanceof Shape))
+			{
+				return false;
+			}
+			Shape other = (Shape) o;
+			return hash == other.hash
+					&& operationType == other.operationType
+					&& entityType.equals(other.entityType)
+					&& Arrays.equals(references, other.references);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+}
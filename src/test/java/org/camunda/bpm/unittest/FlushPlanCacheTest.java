@@ -0,0 +1,79 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType.DELETE;
+import static org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType.INSERT;
+
+public class FlushPlanCacheTest
+{
+	private static final int OPERATIONS = 200;
+
+	@Test
+	public void shouldReusePlanForFlushesWithSameShape()
+	{
+		FlushPlanCache cache = new FlushPlanCache(16);
+		Function<SortedSet<DbEntityOperation>, List<DbEntityOperation>> sort = FlushTraceReplayer.cachedFastSort(cache);
+
+		for (DbOperationType operationType : new DbOperationType[] {INSERT, DELETE})
+		{
+			FlushTrace trace = createChain(operationType);
+
+			assertThat(trace.verify(sort.apply(trace.toOperations()))).isNull();
+			assertThat(trace.verify(sort.apply(trace.toOperations()))).isNull();
+		}
+
+		// each shape is sorted once and re-used once
+		assertThat(cache.getMisses()).isEqualTo(2);
+		assertThat(cache.getHits()).isEqualTo(2);
+
+		System.out.println(cache);
+	}
+
+	@Test
+	public void shouldRejectPlanWhichViolatesReferences()
+	{
+		SortedSet<DbEntityOperation> operations = createChain(INSERT).toOperations();
+		FlushPlanCache.Shape shape = FlushPlanCache.Shape.of(operations);
+
+		int[] inOrder = new int[OPERATIONS];
+		int[] reversed = new int[OPERATIONS];
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			inOrder[i] = i;
+			reversed[i] = OPERATIONS - 1 - i;
+		}
+
+		// operation i references operation i + 1, so inserts must be executed in reverse order
+		assertThat(shape.isValidPlan(reversed)).isTrue();
+		assertThat(shape.isValidPlan(inOrder)).isFalse();
+		assertThat(shape.isValidPlan(new int[OPERATIONS])).isFalse();
+	}
+
+	/**
+	 * A chain in which each operation references the next one, plus one reference to an entity outside the flush.
+	 */
+	private static FlushTrace createChain(DbOperationType operationType)
+	{
+		int[] entityTypeIndexes = new int[OPERATIONS];
+		DbOperationType[] operationTypes = new DbOperationType[OPERATIONS];
+		int[][] references = new int[OPERATIONS][];
+
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			operationTypes[i] = operationType;
+			references[i] = i < OPERATIONS - 1 ? new int[] {i + 1} : new int[] {OPERATIONS};
+		}
+
+		return new FlushTrace(Collections.singletonList("org.camunda.bpm.engine.impl.persistence.entity.ExecutionEntity"),
+				entityTypeIndexes, operationTypes, references, 1);
+	}
+}
@@ -0,0 +1,375 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.DbEntity;
+import org.camunda.bpm.engine.impl.db.HasDbReferences;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationManager;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import static org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationType.INSERT;
+
+/**
+ * Anonymized operation graph of a single call to DbOperationManager#sortByReferences.
+ * <p>
+ * Only the shape of the flush is kept: the entity type and operation type of each operation
+ * and the references between them. Entity ids are replaced by indexes, i.e. a reference to
+ * the i-th operation of the pre-sorted set is stored as i, and references to entities which are
+ * not part of the flush are numbered from operationCount onwards in order of first appearance.
+ * <p>
+ * Traces are written with {@link #writeTo(DataOutput)} and can be turned back into a pre-sorted
+ * set of operations with {@link #toOperations()}, so that any sort implementation can be run
+ * against them offline (see {@link FlushTraceReplayer}).
+ */
+public class FlushTrace
+{
+	private final List<String> entityTypes;
+	private final int[] entityTypeIndexes;
+	private final DbOperationType[] operationTypes;
+	private final int[][] references;
+	private final int externalReferenceCount;
+
+	FlushTrace(List<String> entityTypes, int[] entityTypeIndexes, DbOperationType[] operationTypes, int[][] references, int externalReferenceCount)
+	{
+		this.entityTypes = entityTypes;
+		this.entityTypeIndexes = entityTypeIndexes;
+		this.operationTypes = operationTypes;
+		this.references = references;
+		this.externalReferenceCount = externalReferenceCount;
+	}
+
+	/**
+	 * Captures the shape of the given operations. The iteration order of the collection is
+	 * preserved, so passing the pre-sorted set keeps the input order of the sort.
+	 */
+	public static FlushTrace capture(Collection<DbEntityOperation> operations)
+	{
+		int size = operations.size();
+
+		Map<String, Integer> indexes = new HashMap<>(size * 2);
+		Map<String, Integer> typeIndexes = new LinkedHashMap<>();
+
+		int[] entityTypeIndexes = new int[size];
+		DbOperationType[] operationTypes = new DbOperationType[size];
+
+		int i = 0;
+		for (DbEntityOperation operation : operations)
+		{
+			indexes.putIfAbsent(operation.getEntity().getId(), i);
+			entityTypeIndexes[i] = typeIndexes.computeIfAbsent(operation.getEntityType().getName(), k -> typeIndexes.size());
+			operationTypes[i] = operation.getOperationType();
+			i++;
+		}
+
+		int[][] references = new int[size][];
+		int next = size;
+
+		i = 0;
+		for (DbEntityOperation operation : operations)
+		{
+			Set<String> refs = operation.getFlushRelevantEntityReferences();
+			if (refs == null || refs.isEmpty())
+			{
+				references[i++] = new int[0];
+				continue;
+			}
+
+			int[] current = new int[refs.size()];
+			int j = 0;
+			for (String ref : refs)
+			{
+				Integer index = indexes.get(ref);
+				if (index == null)
+				{
+					index = next++;
+					indexes.put(ref, index);
+				}
+				current[j++] = index;
+			}
+			references[i++] = current;
+		}
+
+		return new FlushTrace(new ArrayList<>(typeIndexes.keySet()), entityTypeIndexes, operationTypes, references, next - size);
+	}
+
+	public int getOperationCount()
+	{
+		return operationTypes.length;
+	}
+
+	public int getExternalReferenceCount()
+	{
+		return externalReferenceCount;
+	}
+
+	public String getEntityType(int operation)
+	{
+		return entityTypes.get(entityTypeIndexes[operation]);
+	}
+
+	public DbOperationType getOperationType(int operation)
+	{
+		return operationTypes[operation];
+	}
+
+	public int[] getReferences(int operation)
+	{
+		return references[operation];
+	}
+
+	/**
+	 * Re-creates the pre-sorted set of operations described by this trace.
+	 * <p>
+	 * Synthetic entity ids are zero-padded indexes, so the comparator of the DbOperationManager
+	 * puts them back into the recorded order. Entity types which cannot be loaded are replaced
+	 * by {@link TraceEntity}.
+	 */
+	public SortedSet<DbEntityOperation> toOperations()
+	{
+		int size = getOperationCount();
+
+		Comparator<DbEntityOperation> comparator = size > 0 && operationTypes[0] == INSERT
+				? DbOperationManager.INSERT_OPERATION_COMPARATOR
+				: DbOperationManager.MODIFICATION_OPERATION_COMPARATOR;
+
+		SortedSet<DbEntityOperation> operations = new TreeSet<>(comparator);
+
+		List<Class<? extends DbEntity>> types = new ArrayList<>(entityTypes.size());
+		for (String entityType : entityTypes)
+		{
+			types.add(loadEntityType(entityType));
+		}
+
+		for (int i = 0; i < size; i++)
+		{
+			Set<String> refs = new HashSet<>();
+			for (int ref : references[i])
+			{
+				refs.add(entityId(ref));
+			}
+
+			DbEntityOperation operation = new DbEntityOperation();
+			operation.setEntity(new TraceEntity(entityId(i)));
+			operation.setEntityType(types.get(entityTypeIndexes[i]));
+			operation.setOperationType(operationTypes[i]);
+			operation.setFlushRelevantEntityReferences(refs);
+			operations.add(operation);
+		}
+
+		return operations;
+	}
+
+	/**
+	 * Checks that the given result of a sort contains exactly the operations of the input and that
+	 * every reference between two operations of the flush is respected, i.e. an INSERT comes after
+	 * the operations it references and an UPDATE/DELETE comes before the operations it references.
+	 *
+	 * @return null if the order is valid, otherwise a description of the first violation found.
+	 */
+	public String verify(List<DbEntityOperation> sorted)
+	{
+		int size = getOperationCount();
+
+		if (sorted.size() != size)
+		{
+			return "Expected " + size + " operations but got " + sorted.size();
+		}
+
+		int[] positions = new int[size];
+		Arrays.fill(positions, -1);
+
+		for (int position = 0; position < size; position++)
+		{
+			int index = indexOf(sorted.get(position).getEntity().getId());
+			if (index < 0 || index >= size || positions[index] != -1)
+			{
+				return "Unexpected or duplicate operation " + sorted.get(position);
+			}
+			positions[index] = position;
+		}
+
+		for (int i = 0; i < size; i++)
+		{
+			for (int ref : references[i])
+			{
+				if (ref == i || ref >= size)
+				{
+					continue;
+				}
+
+				boolean valid = operationTypes[i] == INSERT ? positions[ref] < positions[i] : positions[i] < positions[ref];
+				if (!valid)
+				{
+					return "Operation " + i + " (" + operationTypes[i] + ") is in the wrong position relative to operation " + ref;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	public void writeTo(DataOutput out) throws IOException
+	{
+		int size = getOperationCount();
+
+		writeVarInt(out, entityTypes.size());
+		for (String entityType : entityTypes)
+		{
+			out.writeUTF(entityType);
+		}
+
+		writeVarInt(out, size);
+		writeVarInt(out, externalReferenceCount);
+
+		for (int i = 0; i < size; i++)
+		{
+			writeVarInt(out, entityTypeIndexes[i]);
+			out.writeByte(operationTypes[i].ordinal());
+			writeVarInt(out, references[i].length);
+			for (int ref : references[i])
+			{
+				writeVarInt(out, ref);
+			}
+		}
+	}
+
+	public static FlushTrace readFrom(DataInput in) throws IOException
+	{
+		int typeCount = readVarInt(in);
+		List<String> entityTypes = new ArrayList<>(typeCount);
+		for (int i = 0; i < typeCount; i++)
+		{
+			entityTypes.add(in.readUTF());
+		}
+
+		int size = readVarInt(in);
+		int externalReferenceCount = readVarInt(in);
+
+		DbOperationType[] allTypes = DbOperationType.values();
+
+		int[] entityTypeIndexes = new int[size];
+		DbOperationType[] operationTypes = new DbOperationType[size];
+		int[][] references = new int[size][];
+
+		for (int i = 0; i < size; i++)
+		{
+			entityTypeIndexes[i] = readVarInt(in);
+			operationTypes[i] = allTypes[in.readUnsignedByte()];
+			references[i] = new int[readVarInt(in)];
+			for (int j = 0; j < references[i].length; j++)
+			{
+				references[i][j] = readVarInt(in);
+			}
+		}
+
+		return new FlushTrace(entityTypes, entityTypeIndexes, operationTypes, references, externalReferenceCount);
+	}
+
+	private static String entityId(int index)
+	{
+		return String.format("%010d", index);
+	}
+
+	private static int indexOf(String entityId)
+	{
+		try
+		{
+			return Integer.parseInt(entityId);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends DbEntity> loadEntityType(String name)
+	{
+		try
+		{
+			Class<?> type = Class.forName(name, false, FlushTrace.class.getClassLoader());
+			if (DbEntity.class.isAssignableFrom(type))
+			{
+				return (Class<? extends DbEntity>) type;
+			}
+		}
+		catch (ClassNotFoundException e)
+		{
+			// fall through, the type is only informative for the sort
+		}
+		return TraceEntity.class;
+	}
+
+	private static void writeVarInt(DataOutput out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed flush trace. Variable length integer is too long.");
+	}
+
+	/**
+	 * Stand-in entity for replayed operations. Only the id is relevant for sorting.
+	 */
+	public static class TraceEntity implements DbEntity, HasDbReferences
+	{
+		private String id;
+
+		TraceEntity(String id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public String getId()
+		{
+			return id;
+		}
+
+		@Override
+		public void setId(String id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public Object getPersistentState()
+		{
+			return id;
+		}
+
+		@Override
+		public Set<String> getReferencedEntityIds()
+		{
+			return Collections.emptySet();
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Map<String, Class> getReferencedEntitiesIdAndClass()
+		{
+			return Collections.emptyMap();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the operation graph of selected flushes to a trace file.
+ * <p>
+ * A flush is selected if it contains at least 'minOperations' operations and it is the n-th
+ * such flush, where n is a multiple of 'sampleEvery'. Each selected flush is captured as a
+ * {@link FlushTrace} and appended to the file, so the recorder can be installed on a running
+ * engine (see {@link FastDbOperationManager#setFlushTraceRecorder(FlushTraceRecorder)}) and the
+ * resulting file can later be loaded with {@link FlushTraceReplayer#load(Path)}.
+ * <p>
+ * File layout: the magic number and format version, followed by a sequence of traces,
+ * each prefixed with a marker byte.
+ */
+public class FlushTraceRecorder
+{
+	static final int MAGIC = 0x464C5452; // "FLTR"
+	static final int VERSION = 1;
+	static final int TRACE_MARKER = 0x54;
+
+	private static final Logger LOG = LoggerFactory.getLogger(FlushTraceRecorder.class);
+
+	private final Path file;
+	private final int minOperations;
+	private final int sampleEvery;
+
+	private final AtomicLong candidates = new AtomicLong();
+	private final AtomicLong recorded = new AtomicLong();
+
+	public FlushTraceRecorder(Path file, int minOperations, int sampleEvery)
+	{
+		if (sampleEvery < 1)
+		{
+			throw new IllegalArgumentException("sampleEvery must be at least 1");
+		}
+		this.file = file;
+		this.minOperations = minOperations;
+		this.sampleEvery = sampleEvery;
+	}
+
+	public void record(SortedSet<DbEntityOperation> preSorted)
+	{
+		if (preSorted.size() < minOperations || candidates.getAndIncrement() % sampleEvery != 0)
+		{
+			return;
+		}
+
+		// capture outside the lock, only writing to the file is serialized
+		FlushTrace trace = FlushTrace.capture(preSorted);
+
+		try
+		{
+			write(trace);
+			recorded.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			// recording must never break a flush
+			LOG.warn("Unable to record flush trace to {}", file, e);
+		}
+	}
+
+	private synchronized void write(FlushTrace trace) throws IOException
+	{
+		boolean writeHeader = !Files.exists(file) || Files.size(file) == 0;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true))))
+		{
+			if (writeHeader)
+			{
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+			}
+			out.writeByte(TRACE_MARKER);
+			trace.writeTo(out);
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	public long getRecordedCount()
+	{
+		return recorded.get();
+	}
+}
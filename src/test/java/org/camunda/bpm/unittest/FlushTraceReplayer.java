@@ -0,0 +1,176 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbEntityOperation;
+import org.camunda.bpm.engine.impl.db.entitymanager.operation.DbOperationManager;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.function.Function;
+
+/**
+ * Replays recorded flush traces (see {@link FlushTraceRecorder}) against a sortByReferences
+ * implementation, checking the correctness of every result and measuring the time spent sorting.
+ * <p>
+ * Usage:
+ * <pre>
+ * List&lt;FlushTrace&gt; traces = FlushTraceReplayer.load(path);
+ * FlushTraceReplayer.Report report = FlushTraceReplayer.replay(traces, FlushTraceReplayer.fastSort(), 10);
+ * System.out.println(report);
+ * </pre>
+ */
+public class FlushTraceReplayer
+{
+	public static List<FlushTrace> load(Path file) throws IOException
+	{
+		List<FlushTrace> traces = new ArrayList<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			if (in.readInt() != FlushTraceRecorder.MAGIC)
+			{
+				throw new IOException("Not a flush trace file: " + file);
+			}
+
+			int version = in.readUnsignedByte();
+			if (version != FlushTraceRecorder.VERSION)
+			{
+				throw new IOException("Unsupported flush trace version " + version + " in " + file);
+			}
+
+			int marker;
+			while ((marker = in.read()) != -1)
+			{
+				if (marker != FlushTraceRecorder.TRACE_MARKER)
+				{
+					throw new IOException("Corrupt flush trace file " + file + " after " + traces.size() + " traces");
+				}
+				traces.add(FlushTrace.readFrom(in));
+			}
+		}
+
+		return traces;
+	}
+
+	/**
+	 * Replays every trace 'iterations' times with the given sort. Correctness is checked on each run,
+	 * only the time spent inside the sort is measured.
+	 */
+	public static Report replay(List<FlushTrace> traces, Function<SortedSet<DbEntityOperation>, List<DbEntityOperation>> sort, int iterations)
+	{
+		Report report = new Report();
+
+		for (FlushTrace trace : traces)
+		{
+			for (int i = 0; i < iterations; i++)
+			{
+				SortedSet<DbEntityOperation> preSorted = trace.toOperations();
+
+				List<DbEntityOperation> sorted;
+				long start = System.nanoTime();
+				try
+				{
+					sorted = sort.apply(preSorted);
+				}
+				catch (RuntimeException e)
+				{
+					report.failures.add(e.toString());
+					continue;
+				}
+				finally
+				{
+					report.nanos += System.nanoTime() - start;
+				}
+
+				report.operations += trace.getOperationCount();
+				report.sorts++;
+
+				String violation = trace.verify(sorted);
+				if (violation != null)
+				{
+					report.failures.add(violation);
+				}
+			}
+		}
+
+		report.traces = traces.size();
+		return report;
+	}
+
+	/**
+	 * The sort of the engine's DbOperationManager.
+	 */
+	public static Function<SortedSet<DbEntityOperation>, List<DbEntityOperation>> defaultSort()
+	{
+		return new DefaultSort()::sortByReferences;
+	}
+
+	/**
+	 * The topological sort of {@link FastDbOperationManager}, without plan cache, so every iteration sorts.
+	 */
+	public static Function<SortedSet<DbEntityOperation>, List<DbEntityOperation>> fastSort()
+	{
+		return new FastDbOperationManager(null)::sortByReferences;
+	}
+
+	/**
+	 * The sort of {@link FastDbOperationManager} re-using plans from the given cache.
+	 */
+	public static Function<SortedSet<DbEntityOperation>, List<DbEntityOperation>> cachedFastSort(FlushPlanCache cache)
+	{
+		return new FastDbOperationManager(cache)::sortByReferences;
+	}
+
+	private static class DefaultSort extends DbOperationManager
+	{
+		@Override
+		protected List<DbEntityOperation> sortByReferences(SortedSet<DbEntityOperation> preSorted)
+		{
+			return super.sortByReferences(preSorted);
+		}
+	}
+
+	public static class Report
+	{
+		private int traces;
+		private long sorts;
+		private long operations;
+		private long nanos;
+		private final List<String> failures = new ArrayList<>();
+
+		public int getTraces()
+		{
+			return traces;
+		}
+
+		public long getSorts()
+		{
+			return sorts;
+		}
+
+		public long getOperations()
+		{
+			return operations;
+		}
+
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		public List<String> getFailures()
+		{
+			return failures;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d traces, %d sorts, %d operations in %.3f ms (%.1f ns/operation), %d failures",
+					traces, sorts, operations, nanos / 1e6, operations == 0 ? 0.0 : (double) nanos / operations, failures.size());
+		}
+	}
+}
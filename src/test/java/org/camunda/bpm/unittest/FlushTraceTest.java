@@ -0,0 +1,96 @@
+package org.camunda.bpm.unittest;
+
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.db.entitymanager.DbEntityManager;
+import org.camunda.bpm.engine.impl.interceptor.SessionFactory;
+import org.camunda.bpm.engine.runtime.ProcessInstance;
+import org.camunda.bpm.engine.test.Deployment;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Records the flushes of a small workload and replays them against both sort implementations.
+ */
+public class FlushTraceTest
+{
+	private static final int INSTANCES = 10;
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void shouldRecordAndReplayFlushes() throws Exception
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		SessionFactory original = configuration.getSessionFactories().get(DbEntityManager.class);
+
+		Path file = tempDir.resolve("flushes.trace");
+		FlushTraceRecorder recorder = new FlushTraceRecorder(file, 1, 1);
+
+		try
+		{
+			MethodUtils.invokeMethod(configuration, true, "addSessionFactory", new ExtendedDbEntityManagerFactory(configuration));
+			FastDbOperationManager.setFlushTraceRecorder(recorder);
+
+			List<String> instanceIds = IntStream.rangeClosed(1, INSTANCES)
+					.mapToObj(i -> startInstance("trace-test-" + i))
+					.map(ProcessInstance::getId)
+					.collect(Collectors.toList());
+
+			extension.getRuntimeService().deleteProcessInstances(instanceIds, "test", true, true, true);
+		}
+		finally
+		{
+			FastDbOperationManager.setFlushTraceRecorder(null);
+			configuration.getSessionFactories().put(DbEntityManager.class, original);
+		}
+
+		List<FlushTrace> traces = FlushTraceReplayer.load(file);
+
+		assertThat(traces).hasSize((int) recorder.getRecordedCount());
+		assertThat(traces).anySatisfy(trace -> assertThat(trace.getOperationCount()).isGreaterThanOrEqualTo(100));
+
+		FlushTraceReplayer.Report defaultReport = FlushTraceReplayer.replay(traces, FlushTraceReplayer.defaultSort(), 3);
+		FlushTraceReplayer.Report fastReport = FlushTraceReplayer.replay(traces, FlushTraceReplayer.fastSort(), 3);
+		FlushPlanCache cache = new FlushPlanCache(256);
+		FlushTraceReplayer.Report cachedReport = FlushTraceReplayer.replay(traces, FlushTraceReplayer.cachedFastSort(cache), 3);
+
+		System.out.println("Default sort: " + defaultReport);
+		System.out.println("Fast sort: " + fastReport);
+		System.out.println("Cached fast sort: " + cachedReport + ", " + cache);
+
+		assertThat(defaultReport.getFailures()).isEmpty();
+		assertThat(fastReport.getFailures()).isEmpty();
+		assertThat(cachedReport.getFailures()).isEmpty();
+		assertThat(fastReport.getOperations()).isEqualTo(defaultReport.getOperations());
+		assertThat(cachedReport.getOperations()).isEqualTo(defaultReport.getOperations());
+	}
+
+	private ProcessInstance startInstance(String businessKey)
+	{
+		return extension.getRuntimeService().startProcessInstanceByKey("testProcess", businessKey, createInputVariables());
+	}
+
+	private static Map<String, Object> createInputVariables()
+	{
+		Map<String, Object> inputVariables = new HashMap<>();
+		IntStream.rangeClosed(1, 100).forEach(value -> inputVariables.put("foo" + value, "bar" + value));
+		return inputVariables;
+	}
+}
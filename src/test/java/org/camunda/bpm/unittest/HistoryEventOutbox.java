@@ -0,0 +1,223 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
+
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDBC access to the outbox table of the {@link BatchedHistoryEventHandler}.
+ * <p>
+ * Each row holds the deferred history events of one transaction, serialized as a single blob. Rows are inserted
+ * in the transaction which produced the events, so they are committed or rolled back together with the runtime
+ * changes. A row is claimed by deleting it: only the transaction whose delete affected the row may write its
+ * events, which makes the hand-off safe against the queue and the recovery sweep (or several engines) picking
+ * up the same row.
+ * <p>
+ * The DDL is written for H2, other databases need a matching table.
+ */
+public class HistoryEventOutbox
+{
+	static final String TABLE = "HIST_EVENT_OUTBOX";
+
+	private final String table;
+
+	// cleared once the driver answers a batch with SUCCESS_NO_INFO, rows are then claimed one by one
+	private volatile boolean batchClaims = true;
+
+	public HistoryEventOutbox(String tablePrefix)
+	{
+		this.table = (tablePrefix == null ? "" : tablePrefix) + TABLE;
+	}
+
+	public void createTable(Connection connection) throws SQLException
+	{
+		try (Statement statement = connection.createStatement())
+		{
+			statement.execute("create table if not exists " + table + " ("
+					+ "ID_ bigint generated by default as identity primary key, "
+					+ "CREATE_TIME_ bigint not null, "
+					+ "EVENT_COUNT_ integer not null, "
+					+ "EVENTS_ blob not null)");
+		}
+	}
+
+	public Entry insert(Connection connection, List<HistoryEvent> events) throws SQLException
+	{
+		long createTime = System.currentTimeMillis();
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"insert into " + table + " (CREATE_TIME_, EVENT_COUNT_, EVENTS_) values (?, ?, ?)", new String[] {"ID_"}))
+		{
+			statement.setLong(1, createTime);
+			statement.setInt(2, events.size());
+			statement.setBytes(3, serialize(events));
+			statement.executeUpdate();
+
+			try (ResultSet keys = statement.getGeneratedKeys())
+			{
+				if (!keys.next())
+				{
+					throw new SQLException("No id generated for outbox entry");
+				}
+				return new Entry(keys.getLong(1), createTime, events);
+			}
+		}
+	}
+
+	/**
+	 * Delete the rows of the given entries.
+	 * <p>
+	 * If the driver does not report the rows deleted by a batch ({@link Statement#SUCCESS_NO_INFO}), it is
+	 * unknown which rows this call claimed. An exception is thrown so the transaction rolls back, and later
+	 * calls delete the rows one by one.
+	 *
+	 * @return for each entry, whether its row was deleted by this call. Entries whose row is already gone
+	 * have been written by someone else.
+	 */
+	public boolean[] claim(Connection connection, List<Entry> entries) throws SQLException
+	{
+		boolean[] claimed = new boolean[entries.size()];
+
+		try (PreparedStatement statement = connection.prepareStatement("delete from " + table + " where ID_ = ?"))
+		{
+			if (entries.size() == 1 || !batchClaims)
+			{
+				for (int i = 0; i < entries.size(); i++)
+				{
+					statement.setLong(1, entries.get(i).getId());
+					claimed[i] = statement.executeUpdate() == 1;
+				}
+				return claimed;
+			}
+
+			for (Entry entry : entries)
+			{
+				statement.setLong(1, entry.getId());
+				statement.addBatch();
+			}
+
+			int[] counts = statement.executeBatch();
+			for (int i = 0; i < counts.length; i++)
+			{
+				if (counts[i] == Statement.SUCCESS_NO_INFO)
+				{
+					batchClaims = false;
+					throw new SQLException("Driver did not report which outbox rows were claimed");
+				}
+				claimed[i] = counts[i] == 1;
+			}
+		}
+
+		return claimed;
+	}
+
+	/**
+	 * Read up to 'limit' committed rows with an id greater than 'afterId', in id order.
+	 */
+	public List<Entry> readPending(Connection connection, long afterId, int limit) throws SQLException
+	{
+		try (PreparedStatement statement = connection.prepareStatement(
+				"select ID_, CREATE_TIME_, EVENTS_ from " + table + " where ID_ > ? order by ID_"))
+		{
+			statement.setLong(1, afterId);
+			statement.setMaxRows(limit);
+
+			List<Entry> entries = new ArrayList<>();
+			try (ResultSet rs = statement.executeQuery())
+			{
+				while (rs.next())
+				{
+					entries.add(new Entry(rs.getLong(1), rs.getLong(2), deserialize(rs.getBytes(3))));
+				}
+			}
+			return entries;
+		}
+	}
+
+	public long count(Connection connection) throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select count(*) from " + table))
+		{
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	/**
+	 * @return the creation time of the oldest row, null if the outbox is empty.
+	 */
+	public Long oldestCreateTime(Connection connection) throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select min(CREATE_TIME_) from " + table))
+		{
+			rs.next();
+			long createTime = rs.getLong(1);
+			return rs.wasNull() ? null : createTime;
+		}
+	}
+
+	private static byte[] serialize(List<HistoryEvent> events) throws SQLException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(new ArrayList<>(events));
+		}
+		catch (IOException e)
+		{
+			throw new SQLException("Unable to serialize history events", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<HistoryEvent> deserialize(byte[] bytes) throws SQLException
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+		{
+			return (List<HistoryEvent>) in.readObject();
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			throw new SQLException("Unable to deserialize history events", e);
+		}
+	}
+
+	/**
+	 * The events of one transaction.
+	 */
+	public static class Entry
+	{
+		private final long id;
+		private final long createTime;
+		private final List<HistoryEvent> events;
+
+		Entry(long id, long createTime, List<HistoryEvent> events)
+		{
+			this.id = id;
+			this.createTime = createTime;
+			this.events = Collections.unmodifiableList(events);
+		}
+
+		public long getId()
+		{
+			return id;
+		}
+
+		public long getCreateTime()
+		{
+			return createTime;
+		}
+
+		public List<HistoryEvent> getEvents()
+		{
+			return events;
+		}
+	}
+}
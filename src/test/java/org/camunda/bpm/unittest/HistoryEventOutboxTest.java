@@ -0,0 +1,84 @@
+package org.camunda.bpm.unittest;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HistoryEventOutboxTest
+{
+	@Test
+	public void shouldNotClaimRowsWhenDriverReportsNoBatchCounts() throws Exception
+	{
+		HistoryEventOutbox outbox = new HistoryEventOutbox(null);
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:outbox-test", "sa", ""))
+		{
+			outbox.createTable(connection);
+			List<HistoryEventOutbox.Entry> entries = Arrays.asList(
+					outbox.insert(connection, new ArrayList<>()),
+					outbox.insert(connection, new ArrayList<>()));
+
+			connection.setAutoCommit(false);
+			Connection noBatchCounts = withoutBatchCounts(connection);
+
+			// the rows are deleted, but it is unknown by whom, so the transaction must not commit
+			assertThatThrownBy(() -> outbox.claim(noBatchCounts, entries)).isInstanceOf(SQLException.class);
+			connection.rollback();
+			assertThat(outbox.count(connection)).isEqualTo(2);
+
+			// from now on, rows are claimed one by one
+			assertThat(outbox.claim(noBatchCounts, entries)).containsExactly(true, true);
+			assertThat(outbox.claim(noBatchCounts, entries)).containsExactly(false, false);
+			connection.commit();
+			assertThat(outbox.count(connection)).isZero();
+		}
+	}
+
+	/**
+	 * A connection whose batches report {@link Statement#SUCCESS_NO_INFO}, as some drivers do.
+	 */
+	private static Connection withoutBatchCounts(Connection connection)
+	{
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) ->
+		{
+			Object result = invoke(connection, method, args);
+			if (!(result instanceof PreparedStatement))
+			{
+				return result;
+			}
+
+			PreparedStatement statement = (PreparedStatement) result;
+			return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (statementProxy, statementMethod, statementArgs) ->
+			{
+				Object statementResult = invoke(statement, statementMethod, statementArgs);
+				if ("executeBatch".equals(statementMethod.getName()))
+				{
+					int[] counts = (int[]) statementResult;
+					Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+				}
+				return statementResult;
+			});
+		});
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+	{
+		try
+		{
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.camunda.bpm.unittest;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.camunda.bpm.engine.impl.cfg.IdGenerator;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the id generators under concurrent inserts into an H2 table with a varchar primary key,
+ * which is how the engine tables store ids.
+ * <p>
+ * For each generator, the test reports the insert throughput and the index locality, i.e. the share
+ * of inserts whose id was greater than every id inserted before it and therefore appended at the
+ * right edge of the primary key index rather than splitting a page in the middle of it.
+ * <p>
+ * StrongUuidGenerator is represented by java.util.UUID.randomUUID(), since the generator itself needs
+ * com.fasterxml.uuid which is not on the classpath. Both produce random (version 4 style) UUIDs.
+ */
+public class IdGeneratorPerfTest
+{
+	private static final int THREADS = 8;
+	private static final int IDS_PER_THREAD = 5000;
+	private static final int BATCH_SIZE = 100;
+
+	private static final String JDBC_URL = "jdbc:h2:mem:idgenerator;DB_CLOSE_DELAY=-1";
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	public void testIdGeneratorPerformance() throws Exception
+	{
+		Map<String, IdGenerator> generators = new LinkedHashMap<>();
+		generators.put("DbIdGenerator", extension.getProcessEngineConfiguration().getIdGenerator());
+		generators.put("RandomUuid", () -> UUID.randomUUID().toString());
+		generators.put("TimeOrderedIdGenerator", new TimeOrderedIdGenerator());
+
+		for (Map.Entry<String, IdGenerator> entry : generators.entrySet())
+		{
+			run(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Test
+	public void timeOrderedIdsShouldIncreasePerThread()
+	{
+		TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+
+		String previous = generator.getNextId();
+		for (int i = 0; i < 100_000; i++)
+		{
+			String next = generator.getNextId();
+			assertThat(next).isGreaterThan(previous);
+			assertThat(UUID.fromString(next).version()).isEqualTo(7);
+			previous = next;
+		}
+	}
+
+	private static void run(String name, IdGenerator generator) throws Exception
+	{
+		try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+		     Statement statement = connection.createStatement())
+		{
+			statement.execute("drop table if exists ID_TEST");
+			statement.execute("create table ID_TEST (ID_ varchar(64) primary key, SEQ_ bigint not null, PAYLOAD_ varchar(255))");
+		}
+
+		AtomicLong sequence = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+		StopWatch watch = StopWatch.createStarted();
+
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++)
+		{
+			futures.add(pool.submit(() -> insert(generator, sequence)));
+		}
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+
+		watch.stop();
+		pool.shutdown();
+
+		int total = THREADS * IDS_PER_THREAD;
+		double throughput = total * 1000.0 / Math.max(1, watch.getTime());
+
+		System.out.printf("%-24s %8.0f inserts/sec, locality %5.1f%% (%s)%n", name, throughput, locality() * 100, watch.formatTime());
+
+		try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+		     Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select count(*) from ID_TEST"))
+		{
+			assertThat(rs.next()).isTrue();
+			assertThat(rs.getInt(1)).isEqualTo(total);
+		}
+	}
+
+	private static Void insert(IdGenerator generator, AtomicLong sequence) throws SQLException
+	{
+		try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+		     PreparedStatement statement = connection.prepareStatement("insert into ID_TEST (ID_, SEQ_, PAYLOAD_) values (?, ?, ?)"))
+		{
+			connection.setAutoCommit(false);
+
+			for (int i = 1; i <= IDS_PER_THREAD; i++)
+			{
+				statement.setString(1, generator.getNextId());
+				statement.setLong(2, sequence.incrementAndGet());
+				statement.setString(3, "payload");
+				statement.addBatch();
+
+				if (i % BATCH_SIZE == 0)
+				{
+					statement.executeBatch();
+					connection.commit();
+				}
+			}
+			statement.executeBatch();
+			connection.commit();
+		}
+		return null;
+	}
+
+	/**
+	 * Share of rows (in insertion order) whose id is greater than all ids inserted before.
+	 */
+	private static double locality() throws SQLException
+	{
+		try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+		     Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select ID_ from ID_TEST order by SEQ_"))
+		{
+			String max = null;
+			long rows = 0;
+			long appended = 0;
+
+			while (rs.next())
+			{
+				String id = rs.getString(1);
+				if (max == null || id.compareTo(max) > 0)
+				{
+					max = id;
+					appended++;
+				}
+				rows++;
+			}
+
+			return rows == 0 ? 0 : (double) appended / rows;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.camunda.bpm.unittest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of variable value types whose whole object graph is immutable.
+ * <p>
+ * A value is considered immutable if it is null, an enum constant, an instance of a registered
+ * type or an instance of a type annotated with {@link ImmutableValue}. Registered types are matched
+ * exactly, not by subtype, since e.g. BigDecimal or BigInteger may be subclassed by mutable types.
+ * <p>
+ * Collections, maps and arrays are never considered immutable, even if all of their elements are,
+ * because they can be modified in place.
+ */
+public class ImmutableTypes
+{
+	private static final List<Class<?>> DEFAULT_TYPES = Arrays.asList(
+			String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+			Float.class, Double.class, BigDecimal.class, BigInteger.class, UUID.class,
+			Instant.class, LocalDate.class, LocalTime.class, LocalDateTime.class, OffsetTime.class,
+			OffsetDateTime.class, ZonedDateTime.class, Duration.class, Period.class, Year.class,
+			YearMonth.class, MonthDay.class, ZoneOffset.class);
+
+	private final Set<Class<?>> types = ConcurrentHashMap.newKeySet();
+	private final Map<Class<?>, Boolean> resolved = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a registry containing the JDK value types which are known to be immutable
+	 * (strings, boxed primitives, BigDecimal/BigInteger, UUID and the java.time value types).
+	 */
+	public static ImmutableTypes withDefaults()
+	{
+		ImmutableTypes immutableTypes = new ImmutableTypes();
+		DEFAULT_TYPES.forEach(immutableTypes::register);
+		return immutableTypes;
+	}
+
+	public ImmutableTypes register(Class<?> type)
+	{
+		types.add(type);
+		resolved.clear();
+		return this;
+	}
+
+	public boolean isImmutable(Object value)
+	{
+		return value == null || resolved.computeIfAbsent(value.getClass(), this::isImmutableType);
+	}
+
+	private boolean isImmutableType(Class<?> type)
+	{
+		return types.contains(type)
+				|| type.isEnum()
+				|| (type.getSuperclass() != null && type.getSuperclass().isEnum()) // constants with a body
+				|| type.isAnnotationPresent(ImmutableValue.class);
+	}
+}
@@ -0,0 +1,17 @@
+package org.camunda.bpm.unittest;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a variable value type whose whole object graph is immutable.
+ * <p>
+ * Values of annotated types are never re-serialized to detect implicit updates
+ * (see {@link ImmutableTypes} and {@link ImmutableValuesPlugin}). Only put this on types
+ * which cannot change after construction, including everything they reference.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ImmutableValue
+{
+}
@@ -0,0 +1,175 @@
+package org.camunda.bpm.unittest;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.camunda.bpm.engine.ProcessEngineException;
+import org.camunda.bpm.engine.impl.cfg.AbstractProcessEnginePlugin;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.variable.serializer.JavaObjectSerializer;
+import org.camunda.bpm.engine.impl.variable.serializer.TypedValueSerializer;
+import org.camunda.bpm.engine.impl.variable.serializer.VariableSerializers;
+import org.camunda.bpm.engine.variable.value.ObjectValue;
+import org.camunda.spin.plugin.impl.SpinObjectValueSerializer;
+import org.camunda.spin.spi.DataFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Engine plugin which stops the object serializers from tracking implicit updates of immutable values.
+ * <p>
+ * TypedValueField registers a command context listener for every value its serializer reports as mutable,
+ * and object serializers report every deserialized value as mutable. On close of the command context,
+ * the listener re-serializes the value and compares it to the persisted bytes. For immutable values this
+ * is wasted work at best, and at worst causes a spurious UPDATE when the serialized form does not survive
+ * a round trip (see SimpleTestCase).
+ * <p>
+ * This plugin replaces the spin and java object serializers by subclasses which consult an
+ * {@link ImmutableTypes} registry, so that such values never get a listener. It must be registered
+ * after the spin plugin. Types can be added in camunda.cfg.xml using the 'immutableTypes' property
+ * or by annotating them with {@link ImmutableValue}.
+ */
+public class ImmutableValuesPlugin extends AbstractProcessEnginePlugin
+{
+	private boolean includeDefaults = true;
+	private List<String> immutableTypes = new ArrayList<>();
+
+	@Override
+	public void postInit(ProcessEngineConfigurationImpl configuration)
+	{
+		install(configuration.getVariableSerializers(), createRegistry());
+	}
+
+	protected ImmutableTypes createRegistry()
+	{
+		ImmutableTypes registry = includeDefaults ? ImmutableTypes.withDefaults() : new ImmutableTypes();
+
+		for (String typeName : immutableTypes)
+		{
+			try
+			{
+				registry.register(Class.forName(typeName.trim(), false, getClass().getClassLoader()));
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new ProcessEngineException("Unknown immutable type '" + typeName + "'", e);
+			}
+		}
+
+		return registry;
+	}
+
+	/**
+	 * Replace the object serializers in the given serializers by registry-aware ones.
+	 *
+	 * @return the serializers which have been replaced, in order to {@link #uninstall} them later.
+	 */
+	public static List<TypedValueSerializer<?>> install(VariableSerializers serializers, ImmutableTypes registry)
+	{
+		List<TypedValueSerializer<?>> replaced = new ArrayList<>();
+
+		for (TypedValueSerializer<?> serializer : new ArrayList<>(serializers.getSerializers()))
+		{
+			TypedValueSerializer<?> replacement = null;
+
+			if (serializer.getClass() == SpinObjectValueSerializer.class)
+			{
+				replacement = new SpinSerializer(serializer.getName(), readDataFormat(serializer), registry);
+			}
+			else if (serializer.getClass() == JavaObjectSerializer.class)
+			{
+				replacement = new JavaSerializer(registry);
+			}
+
+			if (replacement != null)
+			{
+				replace(serializers, serializer, replacement);
+				replaced.add(serializer);
+			}
+		}
+
+		return replaced;
+	}
+
+	/**
+	 * Put back the serializers returned by {@link #install}.
+	 */
+	public static void uninstall(VariableSerializers serializers, List<TypedValueSerializer<?>> replaced)
+	{
+		for (TypedValueSerializer<?> original : replaced)
+		{
+			replace(serializers, serializers.getSerializerByName(original.getName()), original);
+		}
+	}
+
+	private static DataFormat<?> readDataFormat(TypedValueSerializer<?> serializer)
+	{
+		try
+		{
+			return (DataFormat<?>) FieldUtils.readField(serializer, "dataFormat", true);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new ProcessEngineException("Unable to read data format of serializer '" + serializer.getName() + "'", e);
+		}
+	}
+
+	private static void replace(VariableSerializers serializers, TypedValueSerializer<?> current, TypedValueSerializer<?> replacement)
+	{
+		int index = serializers.getSerializerIndex(current);
+		serializers.removeSerializer(current);
+		serializers.addSerializer(replacement, index);
+	}
+
+	public boolean isIncludeDefaults()
+	{
+		return includeDefaults;
+	}
+
+	public void setIncludeDefaults(boolean includeDefaults)
+	{
+		this.includeDefaults = includeDefaults;
+	}
+
+	public List<String> getImmutableTypes()
+	{
+		return immutableTypes;
+	}
+
+	public void setImmutableTypes(List<String> immutableTypes)
+	{
+		this.immutableTypes = immutableTypes;
+	}
+
+	static class SpinSerializer extends SpinObjectValueSerializer
+	{
+		private final ImmutableTypes registry;
+
+		SpinSerializer(String name, DataFormat<?> dataFormat, ImmutableTypes registry)
+		{
+			super(name, dataFormat);
+			this.registry = registry;
+		}
+
+		@Override
+		public boolean isMutableValue(ObjectValue typedValue)
+		{
+			return super.isMutableValue(typedValue) && !registry.isImmutable(typedValue.getValue());
+		}
+	}
+
+	static class JavaSerializer extends JavaObjectSerializer
+	{
+		private final ImmutableTypes registry;
+
+		JavaSerializer(ImmutableTypes registry)
+		{
+			this.registry = registry;
+		}
+
+		@Override
+		public boolean isMutableValue(ObjectValue typedValue)
+		{
+			return super.isMutableValue(typedValue) && !registry.isImmutable(typedValue.getValue());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.persistence.entity.VariableInstanceEntity;
+import org.camunda.bpm.engine.impl.variable.serializer.TypedValueSerializer;
+import org.camunda.bpm.engine.impl.variable.serializer.VariableSerializers;
+import org.camunda.bpm.engine.runtime.ProcessInstance;
+import org.camunda.bpm.engine.test.Deployment;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Same scenario as SimpleTestCase#revisionShouldNotBeModifiedWhenRetrievingVariables, but with the
+ * serializers of {@link ImmutableValuesPlugin} installed.
+ */
+public class ImmutableValuesTest
+{
+	private static final String VARIABLE_NAME = "immutable";
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void revisionShouldNotBeModifiedWhenRetrievingImmutableVariables()
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		VariableSerializers serializers = configuration.getVariableSerializers();
+
+		List<TypedValueSerializer<?>> replaced = ImmutableValuesPlugin.install(serializers, ImmutableTypes.withDefaults());
+		try
+		{
+			assertThat(replaced).isNotEmpty();
+
+			ProcessInstance processInstance = extension.getRuntimeService().startProcessInstanceByKey("testProcess",
+					Collections.singletonMap(VARIABLE_NAME, Instant.ofEpochSecond(1234567890).plusNanos(123456789)));
+
+			// the first retrieval would trigger the redundant update if the value was tracked
+			assertThat(getVariableInstance(processInstance).getRevision()).isEqualTo(1);
+			assertThat(getVariableInstance(processInstance).getRevision()).isEqualTo(1);
+		}
+		finally
+		{
+			ImmutableValuesPlugin.uninstall(serializers, replaced);
+		}
+	}
+
+	@Test
+	public void shouldDetectImmutableValues()
+	{
+		ImmutableTypes registry = ImmutableTypes.withDefaults();
+
+		assertThat(registry.isImmutable(null)).isTrue();
+		assertThat(registry.isImmutable(Instant.now())).isTrue();
+		assertThat(registry.isImmutable(Thread.State.NEW)).isTrue();
+		assertThat(registry.isImmutable(new Money("EUR", 10))).isTrue();
+
+		assertThat(registry.isImmutable(new ArrayList<>())).isFalse();
+		assertThat(registry.isImmutable(new StringBuilder())).isFalse();
+		assertThat(registry.isImmutable(new Object())).isFalse();
+
+		assertThat(registry.register(StringBuilder.class).isImmutable(new StringBuilder())).isTrue();
+	}
+
+	private static VariableInstanceEntity getVariableInstance(ProcessInstance processInstance)
+	{
+		return ((VariableInstanceEntity) extension.getRuntimeService()
+				.createVariableInstanceQuery()
+				.processInstanceIdIn(processInstance.getProcessInstanceId())
+				.variableName(VARIABLE_NAME)
+				.singleResult());
+	}
+
+	@ImmutableValue
+	static final class Money
+	{
+		private final String currency;
+		private final long amount;
+
+		Money(String currency, long amount)
+		{
+			this.currency = currency;
+			this.amount = amount;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package org.camunda.bpm.unittest;
+
+import com.sun.net.httpserver.HttpServer;
+import connectjar.org.apache.http.impl.client.CloseableHttpClient;
+import connectjar.org.apache.http.impl.client.HttpClients;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.camunda.bpm.engine.RuntimeService;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.camunda.bpm.engine.delegate.JavaDelegate;
+import org.camunda.bpm.engine.impl.ProcessEngineImpl;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.jobexecutor.DefaultJobExecutor;
+import org.camunda.bpm.engine.impl.jobexecutor.JobExecutor;
+import org.camunda.bpm.engine.impl.jobexecutor.NotifyAcquisitionRejectedJobsHandler;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.camunda.bpm.model.bpmn.Bpmn;
+import org.camunda.bpm.model.bpmn.BpmnModelInstance;
+import org.camunda.connect.Connectors;
+import org.camunda.connect.httpclient.HttpConnector;
+import org.camunda.connect.httpclient.HttpResponse;
+import org.camunda.connect.httpclient.impl.AbstractHttpConnector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the {@link DefaultJobExecutor} with the {@link VirtualThreadJobExecutor} on async service tasks
+ * which call a local stub HTTP endpoint through the camunda-connect HTTP connector.
+ * <p>
+ * For each executor, the jobs are created first and then the executor is started and timed until all process
+ * instances have completed. Both executors run once for warm-up before they are measured. The stub answers after
+ * a fixed delay, so the jobs spend most of their time blocked on the HTTP call, like a connector call to a remote
+ * system.
+ * <p>
+ * Both executors run at most 'CONCURRENCY' jobs at a time and acquire as many per cycle, so the comparison shows
+ * the cost of the threads and the acquisition, not a difference in the configured pool sizes.
+ * <p>
+ * A job holds a database connection for its whole execution, and the connector's default HTTP client allows only
+ * 5 connections per route. Either would limit both executors to the same concurrency, so the database connection
+ * pool is enlarged and the HTTP client replaced by one with a larger pool for the duration of the test.
+ */
+public class JobExecutorPerfTest
+{
+	private static final int JOBS = 200;
+	private static final int WARMUP_JOBS = 100;
+	private static final int STUB_DELAY_MILLIS = 20;
+	private static final int CONCURRENCY = 32;
+	private static final int DB_CONNECTIONS = CONCURRENCY + 8;
+	private static final String PROCESS_KEY = "httpProcess";
+
+	private static volatile String stubUrl;
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	public void testJobExecutorPerformance() throws Exception
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		PooledDataSource dataSource = (PooledDataSource) configuration.getDataSource();
+		int originalConnections = dataSource.getPoolMaximumActiveConnections();
+		dataSource.setPoolMaximumActiveConnections(DB_CONNECTIONS);
+		configuration.setJdbcMaxActiveConnections(DB_CONNECTIONS);
+
+		HttpServer stub = startStub();
+		AbstractHttpConnector<?, ?> connector = Connectors.getConnector(HttpConnector.ID);
+		CloseableHttpClient originalClient = connector.getHttpClient();
+		connector.setHttpClient(HttpClients.custom().setMaxConnPerRoute(1000).setMaxConnTotal(1000).build());
+
+		String deploymentId = extension.getRepositoryService()
+				.createDeployment()
+				.addModelInstance(PROCESS_KEY + ".bpmn", createProcess())
+				.deploy()
+				.getId();
+
+		try
+		{
+			for (int jobs : new int[] {WARMUP_JOBS, JOBS})
+			{
+				boolean warmup = jobs == WARMUP_JOBS;
+
+				run("DefaultJobExecutor", jobs, warmup, () ->
+				{
+					DefaultJobExecutor jobExecutor = new DefaultJobExecutor();
+					jobExecutor.setCorePoolSize(CONCURRENCY);
+					jobExecutor.setMaxPoolSize(CONCURRENCY);
+					jobExecutor.setQueueSize(CONCURRENCY);
+					jobExecutor.setMaxJobsPerAcquisition(CONCURRENCY);
+					jobExecutor.setRejectedJobsHandler(new NotifyAcquisitionRejectedJobsHandler());
+					return jobExecutor;
+				});
+
+				run("VirtualThreadJobExecutor", jobs, warmup, () ->
+				{
+					VirtualThreadJobExecutor jobExecutor = new VirtualThreadJobExecutor();
+					jobExecutor.setMaxConcurrentJobs(CONCURRENCY);
+					jobExecutor.setMaxJobsPerAcquisition(CONCURRENCY);
+					return jobExecutor;
+				});
+			}
+		}
+		finally
+		{
+			extension.getRepositoryService().deleteDeployment(deploymentId, true);
+			connector.setHttpClient(originalClient);
+			stub.stop(0);
+			dataSource.setPoolMaximumActiveConnections(originalConnections);
+			configuration.setJdbcMaxActiveConnections(originalConnections);
+		}
+	}
+
+	private static void run(String name, int jobs, boolean warmup, Supplier<JobExecutor> jobExecutorFactory) throws InterruptedException
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		ProcessEngineImpl processEngine = (ProcessEngineImpl) extension.getProcessEngine();
+		RuntimeService runtimeService = extension.getRuntimeService();
+
+		for (int i = 0; i < jobs; i++)
+		{
+			runtimeService.startProcessInstanceByKey(PROCESS_KEY);
+		}
+
+		// the executor of the configuration receives the hints about new jobs and must be active to execute them
+		JobExecutor originalJobExecutor = configuration.getJobExecutor();
+		JobExecutor jobExecutor = jobExecutorFactory.get();
+		jobExecutor.setWaitTimeInMillis(50);
+		jobExecutor.registerProcessEngine(processEngine);
+		configuration.setJobExecutor(jobExecutor);
+
+		StopWatch stopWatch = StopWatch.createStarted();
+		try
+		{
+			jobExecutor.start();
+
+			long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+			while (runtimeService.createProcessInstanceQuery().processDefinitionKey(PROCESS_KEY).count() > 0)
+			{
+				assertThat(System.currentTimeMillis()).as("jobs executed in time").isLessThan(deadline);
+				Thread.sleep(10);
+			}
+			stopWatch.stop();
+		}
+		finally
+		{
+			jobExecutor.shutdown();
+			jobExecutor.unregisterProcessEngine(processEngine);
+			configuration.setJobExecutor(originalJobExecutor);
+		}
+
+		assertThat(extension.getManagementService().createJobQuery().count()).isZero();
+
+		if (warmup)
+		{
+			return;
+		}
+
+		long millis = stopWatch.getTime(TimeUnit.MILLISECONDS);
+		String details;
+		if (jobExecutor instanceof VirtualThreadJobExecutor)
+		{
+			VirtualThreadJobExecutor virtualThreadJobExecutor = (VirtualThreadJobExecutor) jobExecutor;
+			details = String.format(" (%s threads, up to %d concurrent jobs, success rate %.2f)",
+					virtualThreadJobExecutor.isVirtual() ? "virtual" : "platform",
+					virtualThreadJobExecutor.getConcurrencyLimit(),
+					virtualThreadJobExecutor.getSuccessRate());
+		}
+		else
+		{
+			DefaultJobExecutor defaultJobExecutor = (DefaultJobExecutor) jobExecutor;
+			details = String.format(" (platform threads, up to %d concurrent jobs, queue %d)",
+					defaultJobExecutor.getMaxPoolSize(), defaultJobExecutor.getQueueSize());
+		}
+		System.out.printf("%-25s %d jobs in %d ms, %.0f jobs/sec%s%n", name, jobs, millis, jobs * 1000.0 / Math.max(1, millis), details);
+	}
+
+	private static BpmnModelInstance createProcess()
+	{
+		return Bpmn.createExecutableProcess(PROCESS_KEY)
+				.startEvent()
+				.serviceTask()
+				.camundaAsyncBefore()
+				.camundaClass(HttpDelegate.class.getName())
+				.endEvent()
+				.done();
+	}
+
+	private static HttpServer startStub() throws Exception
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+		server.createContext("/stub", exchange ->
+		{
+			try
+			{
+				Thread.sleep(STUB_DELAY_MILLIS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			// the JDK server drops idle keep-alive connections the client would try to reuse
+			exchange.getResponseHeaders().add("Connection", "close");
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+
+		ExecutorService executor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "http-stub");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+
+		stubUrl = "http://localhost:" + server.getAddress().getPort() + "/stub";
+		return server;
+	}
+
+	public static class HttpDelegate implements JavaDelegate
+	{
+		@Override
+		public void execute(DelegateExecution execution)
+		{
+			HttpConnector connector = Connectors.getConnector(HttpConnector.ID);
+			HttpResponse response = connector.createRequest().get().url(stubUrl).execute();
+			try
+			{
+				if (response.getStatusCode() != 200)
+				{
+					throw new IllegalStateException("Stub returned " + response.getStatusCode());
+				}
+			}
+			finally
+			{
+				response.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.util.ProductPropertiesUtil;
+import org.h2.engine.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An H2 script of a freshly created engine schema, together with the version hash it was created for.
+ * <p>
+ * The hash covers the engine and H2 versions, the H2 create scripts shipped with the engine and the
+ * configuration properties which decide what the schema looks like. If any of them change, the snapshot
+ * is stale and must be recreated. The H2 version is included since the script is written in the SQL
+ * dialect of the H2 version which created it.
+ */
+public class SchemaSnapshot
+{
+	static final String PROPERTY_TABLE = "ACT_GE_PROPERTY";
+	static final String INSTALLATION_ID_PROPERTY = "camunda.installation.id";
+
+	private static final String[] SCHEMA_COMPONENTS = {
+			"engine", "history", "identity", "case.engine", "case.history", "decision.engine", "decision.history"
+	};
+
+	private final Path file;
+	private final Path hashFile;
+
+	public SchemaSnapshot(Path file)
+	{
+		this.file = file;
+		this.hashFile = file.resolveSibling(file.getFileName() + ".hash");
+	}
+
+	public static String computeHash(ProcessEngineConfigurationImpl configuration)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			update(digest, ProductPropertiesUtil.getProductVersion());
+			update(digest, Constants.VERSION);
+			update(digest, configuration.getDatabaseTablePrefix());
+			update(digest, configuration.getHistory());
+			update(digest, String.valueOf(configuration.isDbHistoryUsed()));
+			update(digest, String.valueOf(configuration.isDbIdentityUsed()));
+			update(digest, String.valueOf(configuration.isCmmnEnabled()));
+			update(digest, String.valueOf(configuration.isDmnEnabled()));
+
+			for (String component : SCHEMA_COMPONENTS)
+			{
+				String resource = "org/camunda/bpm/engine/db/create/activiti.h2.create." + component + ".sql";
+				try (InputStream in = ProcessEngineConfigurationImpl.class.getClassLoader().getResourceAsStream(resource))
+				{
+					if (in == null)
+					{
+						update(digest, "missing:" + resource);
+						continue;
+					}
+
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1)
+					{
+						digest.update(buffer, 0, read);
+					}
+				}
+			}
+
+			StringBuilder hash = new StringBuilder();
+			for (byte b : digest.digest())
+			{
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+		}
+		catch (NoSuchAlgorithmException | IOException e)
+		{
+			throw new IllegalStateException("Unable to compute schema hash", e);
+		}
+	}
+
+	public boolean isCurrent(String hash) throws IOException
+	{
+		return Files.exists(file)
+				&& Files.exists(hashFile)
+				&& hash.equals(new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8).trim());
+	}
+
+	/**
+	 * Write the whole database to the snapshot file and record the hash it belongs to.
+	 * The script is written to a temporary file first, so concurrent readers never see a partial script.
+	 */
+	public void capture(Connection connection, String hash) throws SQLException, IOException
+	{
+		Files.createDirectories(file.toAbsolutePath().getParent());
+
+		Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try
+		{
+			try (Statement statement = connection.createStatement())
+			{
+				statement.execute("SCRIPT TO " + quote(tempFile));
+			}
+
+			Files.deleteIfExists(hashFile);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.write(hashFile, hash.getBytes(StandardCharsets.UTF_8));
+		}
+		finally
+		{
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Run the snapshot script against the given database, which must not contain any tables (see {@link #isEmpty}).
+	 * <p>
+	 * The installation id is removed afterwards, so that every restored database gets its own.
+	 * If the script fails, everything it created is dropped again, so the database is left empty
+	 * rather than with a partial schema.
+	 */
+	public void restore(Connection connection) throws SQLException
+	{
+		// dropping a partial schema drops everything, so never run the script next to other tables
+		if (!isEmpty(connection))
+		{
+			throw new SQLException("Schema snapshot can only be restored into an empty database");
+		}
+
+		try (Statement statement = connection.createStatement())
+		{
+			try
+			{
+				statement.execute("RUNSCRIPT FROM " + quote(file));
+				statement.executeUpdate("delete from " + PROPERTY_TABLE + " where NAME_ = '" + INSTALLATION_ID_PROPERTY + "'");
+			}
+			catch (SQLException e)
+			{
+				try
+				{
+					statement.execute("DROP ALL OBJECTS");
+				}
+				catch (SQLException dropFailure)
+				{
+					e.addSuppressed(dropFailure);
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @param tablePrefix the 'databaseTablePrefix' of the engine, which may name a schema ("SCHEMA.").
+	 * @return whether the engine's property table exists.
+	 */
+	public static boolean hasSchema(Connection connection, String tablePrefix) throws SQLException
+	{
+		String prefix = tablePrefix == null ? "" : tablePrefix.toUpperCase();
+		int dot = prefix.lastIndexOf('.');
+		String schema = dot < 0 ? connection.getSchema() : prefix.substring(0, dot);
+		String table = prefix.substring(dot + 1) + PROPERTY_TABLE;
+
+		try (ResultSet rs = connection.getMetaData().getTables(null, schema, table, null))
+		{
+			return rs.next();
+		}
+	}
+
+	/**
+	 * @return whether the database has no tables or views outside of INFORMATION_SCHEMA.
+	 */
+	public static boolean isEmpty(Connection connection) throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select count(*) from INFORMATION_SCHEMA.TABLES where TABLE_SCHEMA <> 'INFORMATION_SCHEMA'"))
+		{
+			rs.next();
+			return rs.getLong(1) == 0;
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	private static void update(MessageDigest digest, String value)
+	{
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static String quote(Path path)
+	{
+		return "'" + path.toAbsolutePath().toString().replace("'", "''") + "'";
+	}
+}
@@ -0,0 +1,129 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.cfg.AbstractProcessEnginePlugin;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Engine plugin which bootstraps an empty H2 database from a schema snapshot instead of running the create scripts.
+ * <p>
+ * Before the engine is built, the plugin checks whether the database is empty and a snapshot with a matching version
+ * hash (see {@link SchemaSnapshot#computeHash}) exists. If so, the snapshot is restored and the engine finds a complete
+ * schema, so 'databaseSchemaUpdate=true' only checks the version instead of creating the tables. Otherwise, the engine
+ * creates the schema as usual, and once it has been built, the plugin captures a new snapshot for the next start.
+ * <p>
+ * Snapshots are only taken of databases whose schema was created by the current build, so they never contain data of
+ * a previous run. Databases which already contain other tables, databases other than H2 and engines configured with
+ * a DataSource instead of a jdbcUrl are left alone. A snapshot which fails to restore is replaced after the build.
+ */
+public class SchemaSnapshotPlugin extends AbstractProcessEnginePlugin
+{
+	private static final Logger LOG = LoggerFactory.getLogger(SchemaSnapshotPlugin.class);
+
+	private String snapshotFile = "target/schema-snapshot/camunda-h2.sql";
+
+	private SchemaSnapshot snapshot;
+	private String hash;
+	private boolean captureAfterBuild;
+
+	// keeps an in-memory database alive between restoring it and the engine opening its own connections
+	private Connection connection;
+
+	@Override
+	public void preInit(ProcessEngineConfigurationImpl configuration)
+	{
+		String jdbcUrl = configuration.getJdbcUrl();
+		if (configuration.getDataSource() != null || jdbcUrl == null || !jdbcUrl.startsWith("jdbc:h2:"))
+		{
+			return;
+		}
+
+		this.snapshot = new SchemaSnapshot(Paths.get(snapshotFile));
+		this.hash = SchemaSnapshot.computeHash(configuration);
+
+		boolean restoring = false;
+		try
+		{
+			connection = DriverManager.getConnection(jdbcUrl, configuration.getJdbcUsername(), configuration.getJdbcPassword());
+
+			// the snapshot would capture tables which do not belong to the engine
+			if (SchemaSnapshot.hasSchema(connection, configuration.getDatabaseTablePrefix()) || !SchemaSnapshot.isEmpty(connection))
+			{
+				return;
+			}
+
+			if (snapshot.isCurrent(hash))
+			{
+				restoring = true;
+				snapshot.restore(connection);
+			}
+			else
+			{
+				captureAfterBuild = true;
+			}
+		}
+		catch (SQLException | IOException e)
+		{
+			// the engine creates the schema itself if restoring did not work. A failed restore leaves the database
+			// empty, so the schema the engine creates replaces the broken snapshot.
+			LOG.warn("Unable to restore schema snapshot {}", snapshot.getFile(), e);
+			captureAfterBuild = restoring;
+		}
+	}
+
+	@Override
+	public void postProcessEngineBuild(ProcessEngine processEngine)
+	{
+		if (connection == null)
+		{
+			return;
+		}
+
+		try
+		{
+			if (captureAfterBuild)
+			{
+				snapshot.capture(connection, hash);
+			}
+		}
+		catch (SQLException | IOException e)
+		{
+			LOG.warn("Unable to capture schema snapshot {}", snapshot.getFile(), e);
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	private void closeConnection()
+	{
+		try
+		{
+			connection.close();
+		}
+		catch (SQLException e)
+		{
+			// ignore
+		}
+		connection = null;
+	}
+
+	public String getSnapshotFile()
+	{
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(String snapshotFile)
+	{
+		this.snapshotFile = snapshotFile;
+	}
+}
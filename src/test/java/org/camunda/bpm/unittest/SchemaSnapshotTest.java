@@ -0,0 +1,152 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.cfg.StandaloneInMemProcessEngineConfiguration;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks the snapshot written or restored by the {@link SchemaSnapshotPlugin} configured in camunda.cfg.xml.
+ */
+public class SchemaSnapshotTest
+{
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	public void shouldRestoreSnapshotIntoEmptyDatabase() throws Exception
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		SchemaSnapshot snapshot = new SchemaSnapshot(Paths.get(new SchemaSnapshotPlugin().getSnapshotFile()));
+		String hash = SchemaSnapshot.computeHash(configuration);
+
+		// the engine of this test has either restored the snapshot or captured it after creating the schema
+		assertThat(snapshot.isCurrent(hash)).isTrue();
+		assertThat(snapshot.isCurrent(hash + "-stale")).isFalse();
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:snapshot-test", "sa", ""))
+		{
+			assertThat(SchemaSnapshot.hasSchema(connection, configuration.getDatabaseTablePrefix())).isFalse();
+
+			snapshot.restore(connection);
+
+			assertThat(SchemaSnapshot.hasSchema(connection, configuration.getDatabaseTablePrefix())).isTrue();
+
+			try (Statement statement = connection.createStatement();
+			     ResultSet rs = statement.executeQuery("select NAME_ from " + SchemaSnapshot.PROPERTY_TABLE))
+			{
+				boolean hasSchemaVersion = false;
+				while (rs.next())
+				{
+					assertThat(rs.getString(1)).isNotEqualTo(SchemaSnapshot.INSTALLATION_ID_PROPERTY);
+					hasSchemaVersion |= "schema.version".equals(rs.getString(1));
+				}
+				assertThat(hasSchemaVersion).isTrue();
+			}
+		}
+	}
+
+	@Test
+	public void shouldLeaveDatabaseEmptyWhenRestoreFails(@TempDir Path directory) throws Exception
+	{
+		Path file = directory.resolve("broken.sql");
+		Files.write(file, Arrays.asList(
+				"CREATE TABLE " + SchemaSnapshot.PROPERTY_TABLE + " (NAME_ VARCHAR(64) PRIMARY KEY, VALUE_ VARCHAR(300));",
+				"CREATE TABLE ACT_RE_DEPLOYMENT (ID_ VARCHAR(64));",
+				"THIS IS NOT SQL;"));
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:broken-snapshot-test", "sa", ""))
+		{
+			assertThatThrownBy(() -> new SchemaSnapshot(file).restore(connection)).isInstanceOf(SQLException.class);
+
+			assertThat(SchemaSnapshot.hasSchema(connection, null)).isFalse();
+			try (ResultSet rs = connection.getMetaData().getTables(null, null, "ACT_RE_DEPLOYMENT", null))
+			{
+				assertThat(rs.next()).isFalse();
+			}
+		}
+	}
+
+	@Test
+	public void shouldNotRestoreIntoDatabaseWithOtherTables() throws Exception
+	{
+		SchemaSnapshot snapshot = new SchemaSnapshot(Paths.get(new SchemaSnapshotPlugin().getSnapshotFile()));
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:foreign-table-test", "sa", "");
+		     Statement statement = connection.createStatement())
+		{
+			statement.execute("CREATE TABLE APP_ORDER (ID_ BIGINT PRIMARY KEY)");
+			statement.execute("INSERT INTO APP_ORDER VALUES (1)");
+
+			assertThat(SchemaSnapshot.isEmpty(connection)).isFalse();
+			assertThatThrownBy(() -> snapshot.restore(connection)).isInstanceOf(SQLException.class);
+
+			try (ResultSet rs = statement.executeQuery("select count(*) from APP_ORDER"))
+			{
+				rs.next();
+				assertThat(rs.getLong(1)).isEqualTo(1);
+			}
+			assertThat(SchemaSnapshot.hasSchema(connection, null)).isFalse();
+		}
+	}
+
+	@Test
+	public void shouldLookUpPropertyTableWithPrefix() throws Exception
+	{
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:prefix-test", "sa", "");
+		     Statement statement = connection.createStatement())
+		{
+			statement.execute("CREATE SCHEMA CAMUNDA");
+			statement.execute("CREATE TABLE CAMUNDA." + SchemaSnapshot.PROPERTY_TABLE + " (NAME_ VARCHAR(64))");
+
+			assertThat(SchemaSnapshot.hasSchema(connection, "camunda.")).isTrue();
+			assertThat(SchemaSnapshot.hasSchema(connection, "OTHER.")).isFalse();
+			assertThat(SchemaSnapshot.hasSchema(connection, null)).isFalse();
+		}
+	}
+
+	@Test
+	public void shouldRecaptureSnapshotWhichFailsToRestore(@TempDir Path directory) throws Exception
+	{
+		Path file = directory.resolve("camunda-h2.sql");
+
+		SchemaSnapshotPlugin plugin = new SchemaSnapshotPlugin();
+		plugin.setSnapshotFile(file.toString());
+
+		ProcessEngineConfigurationImpl configuration = new StandaloneInMemProcessEngineConfiguration();
+		configuration.setProcessEngineName("schema-snapshot-recapture");
+		configuration.setJdbcUrl("jdbc:h2:mem:schema-snapshot-recapture");
+		configuration.setDatabaseSchemaUpdate(ProcessEngineConfigurationImpl.DB_SCHEMA_UPDATE_TRUE);
+		configuration.setProcessEnginePlugins(Collections.singletonList(plugin));
+
+		// a corrupt snapshot whose hash still matches
+		String hash = SchemaSnapshot.computeHash(configuration);
+		Files.write(file, Collections.singletonList("THIS IS NOT SQL;"));
+		Files.write(directory.resolve("camunda-h2.sql.hash"), hash.getBytes(StandardCharsets.UTF_8));
+
+		ProcessEngine processEngine = configuration.buildProcessEngine();
+		try
+		{
+			assertThat(new SchemaSnapshot(file).isCurrent(hash)).isTrue();
+			assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).contains(SchemaSnapshot.PROPERTY_TABLE);
+		}
+		finally
+		{
+			processEngine.close();
+		}
+	}
+}
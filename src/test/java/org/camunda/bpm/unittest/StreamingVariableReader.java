@@ -0,0 +1,384 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ProcessEngineException;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.interceptor.CommandContext;
+import org.camunda.bpm.engine.impl.variable.serializer.TypedValueSerializer;
+import org.camunda.bpm.engine.impl.variable.serializer.ValueFields;
+import org.camunda.bpm.engine.impl.variable.serializer.VariableSerializerFactory;
+import org.camunda.bpm.engine.variable.value.SerializableValue;
+import org.camunda.bpm.engine.variable.value.TypedValue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads runtime variables through a database cursor, for export and reporting jobs which need to go
+ * over a large number of variables without holding them in memory.
+ * <p>
+ * All rows are read within a single command. They are fetched from the driver in batches of 'batchSize'
+ * and handed to the consumer one by one. Nothing is put into the entity cache: values are only deserialized
+ * (and byte arrays only loaded) when {@link StreamedVariable#getTypedValue()} is called, and since no
+ * VariableInstanceEntity is involved, reading a value never registers it for implicit update detection.
+ * <p>
+ * This is a raw read of ACT_RU_VARIABLE, comparable to a native query: no authorization or tenant checks
+ * are applied.
+ *
+ * <pre>
+ * new StreamingVariableReader(configuration)
+ *     .processInstanceIds(ids)
+ *     .batchSize(500)
+ *     .forEach(variable -&gt; export(variable.getName(), variable.getValue()));
+ * </pre>
+ */
+public class StreamingVariableReader
+{
+	// stays below the IN list limits of all supported databases
+	private static final int MAX_IN_LIST_SIZE = 1000;
+
+	private static final String COLUMNS = "ID_, REV_, NAME_, TYPE_, EXECUTION_ID_, PROC_INST_ID_, TASK_ID_, BYTEARRAY_ID_, DOUBLE_, LONG_, TEXT_, TEXT2_";
+
+	private final ProcessEngineConfigurationImpl configuration;
+
+	private int batchSize = 1000;
+	private List<String> processInstanceIds;
+	private List<String> variableNames;
+
+	public StreamingVariableReader(ProcessEngineConfigurationImpl configuration)
+	{
+		this.configuration = configuration;
+	}
+
+	public StreamingVariableReader batchSize(int batchSize)
+	{
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public StreamingVariableReader processInstanceIds(Collection<String> processInstanceIds)
+	{
+		this.processInstanceIds = new ArrayList<>(processInstanceIds);
+		return this;
+	}
+
+	public StreamingVariableReader variableNames(String... variableNames)
+	{
+		this.variableNames = Arrays.asList(variableNames);
+		return this;
+	}
+
+	/**
+	 * Pass every matching variable to the consumer. A {@link StreamedVariable} is only valid during the call
+	 * to the consumer, since its value is read lazily from the open cursor.
+	 *
+	 * @return the number of variables read.
+	 */
+	public long forEach(Consumer<StreamedVariable> consumer)
+	{
+		return configuration.getCommandExecutorTxRequired().execute(commandContext -> read(commandContext, consumer));
+	}
+
+	private long read(CommandContext commandContext, Consumer<StreamedVariable> consumer)
+	{
+		Connection connection = commandContext.getDbSqlSession().getSqlSession().getConnection();
+		String prefix = configuration.getDatabaseTablePrefix();
+
+		List<List<String>> idChunks = processInstanceIds == null
+				? Collections.singletonList(null)
+				: chunk(processInstanceIds);
+
+		long count = 0;
+
+		try (PreparedStatement byteArrayStatement = connection.prepareStatement("select BYTES_ from " + prefix + "ACT_GE_BYTEARRAY where ID_ = ?"))
+		{
+			for (List<String> ids : idChunks)
+			{
+				if (ids != null && ids.isEmpty())
+				{
+					continue;
+				}
+
+				try (PreparedStatement statement = connection.prepareStatement(createQuery(prefix, ids)))
+				{
+					statement.setFetchSize(batchSize);
+
+					int index = 1;
+					if (ids != null)
+					{
+						for (String id : ids)
+						{
+							statement.setString(index++, id);
+						}
+					}
+					if (variableNames != null)
+					{
+						for (String name : variableNames)
+						{
+							statement.setString(index++, name);
+						}
+					}
+
+					try (ResultSet rs = statement.executeQuery())
+					{
+						while (rs.next())
+						{
+							consumer.accept(new StreamedVariable(rs, byteArrayStatement));
+							count++;
+						}
+					}
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new ProcessEngineException("Unable to stream variables", e);
+		}
+
+		return count;
+	}
+
+	private String createQuery(String prefix, List<String> ids)
+	{
+		StringBuilder sql = new StringBuilder("select ").append(COLUMNS).append(" from ").append(prefix).append("ACT_RU_VARIABLE");
+
+		List<String> conditions = new ArrayList<>();
+		if (ids != null)
+		{
+			conditions.add("PROC_INST_ID_ in (" + placeholders(ids.size()) + ")");
+		}
+		if (variableNames != null && !variableNames.isEmpty())
+		{
+			conditions.add("NAME_ in (" + placeholders(variableNames.size()) + ")");
+		}
+		if (!conditions.isEmpty())
+		{
+			sql.append(" where ").append(String.join(" and ", conditions));
+		}
+
+		return sql.toString();
+	}
+
+	private static String placeholders(int count)
+	{
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+
+	private static List<List<String>> chunk(List<String> ids)
+	{
+		List<List<String>> chunks = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE)
+		{
+			chunks.add(ids.subList(i, Math.min(ids.size(), i + MAX_IN_LIST_SIZE)));
+		}
+		return chunks;
+	}
+
+	private TypedValueSerializer<?> getSerializer(String serializerName)
+	{
+		TypedValueSerializer<?> serializer = configuration.getVariableSerializers().getSerializerByName(serializerName);
+
+		if (serializer == null)
+		{
+			VariableSerializerFactory fallbackSerializerFactory = configuration.getFallbackSerializerFactory();
+			if (fallbackSerializerFactory != null)
+			{
+				serializer = fallbackSerializerFactory.getSerializer(serializerName);
+			}
+		}
+
+		if (serializer == null)
+		{
+			throw new ProcessEngineException("No serializer defined for variable type '" + serializerName + "'");
+		}
+
+		return serializer;
+	}
+
+	/**
+	 * A single row of ACT_RU_VARIABLE. The value is deserialized on first access.
+	 */
+	public class StreamedVariable implements ValueFields
+	{
+		private final PreparedStatement byteArrayStatement;
+
+		private final String id;
+		private final int revision;
+		private final String name;
+		private final String serializerName;
+		private final String executionId;
+		private final String processInstanceId;
+		private final String taskId;
+		private final String byteArrayId;
+		private Double doubleValue;
+		private Long longValue;
+		private String textValue;
+		private String textValue2;
+
+		private byte[] byteArrayValue;
+		private boolean byteArrayLoaded;
+		private TypedValue typedValue;
+
+		StreamedVariable(ResultSet rs, PreparedStatement byteArrayStatement) throws SQLException
+		{
+			this.byteArrayStatement = byteArrayStatement;
+
+			this.id = rs.getString("ID_");
+			this.revision = rs.getInt("REV_");
+			this.name = rs.getString("NAME_");
+			this.serializerName = rs.getString("TYPE_");
+			this.executionId = rs.getString("EXECUTION_ID_");
+			this.processInstanceId = rs.getString("PROC_INST_ID_");
+			this.taskId = rs.getString("TASK_ID_");
+			this.byteArrayId = rs.getString("BYTEARRAY_ID_");
+			this.textValue = rs.getString("TEXT_");
+			this.textValue2 = rs.getString("TEXT2_");
+
+			double doubleValue = rs.getDouble("DOUBLE_");
+			this.doubleValue = rs.wasNull() ? null : doubleValue;
+
+			long longValue = rs.getLong("LONG_");
+			this.longValue = rs.wasNull() ? null : longValue;
+		}
+
+		public TypedValue getTypedValue()
+		{
+			return getTypedValue(true);
+		}
+
+		public TypedValue getTypedValue(boolean deserializeValue)
+		{
+			boolean notDeserialized = typedValue instanceof SerializableValue && !((SerializableValue) typedValue).isDeserialized();
+			if (typedValue == null || (deserializeValue && notDeserialized))
+			{
+				typedValue = getSerializer(serializerName).readValue(this, deserializeValue, false);
+			}
+			return typedValue;
+		}
+
+		public Object getValue()
+		{
+			return getTypedValue().getValue();
+		}
+
+		public String getId()
+		{
+			return id;
+		}
+
+		public int getRevision()
+		{
+			return revision;
+		}
+
+		@Override
+		public String getName()
+		{
+			return name;
+		}
+
+		public String getSerializerName()
+		{
+			return serializerName;
+		}
+
+		public String getExecutionId()
+		{
+			return executionId;
+		}
+
+		public String getProcessInstanceId()
+		{
+			return processInstanceId;
+		}
+
+		public String getTaskId()
+		{
+			return taskId;
+		}
+
+		@Override
+		public byte[] getByteArrayValue()
+		{
+			if (!byteArrayLoaded && byteArrayId != null)
+			{
+				try
+				{
+					byteArrayStatement.setString(1, byteArrayId);
+					try (ResultSet rs = byteArrayStatement.executeQuery())
+					{
+						byteArrayValue = rs.next() ? rs.getBytes(1) : null;
+					}
+				}
+				catch (SQLException e)
+				{
+					throw new ProcessEngineException("Unable to load byte array " + byteArrayId + " of variable " + id, e);
+				}
+			}
+			byteArrayLoaded = true;
+			return byteArrayValue;
+		}
+
+		@Override
+		public void setByteArrayValue(byte[] bytes)
+		{
+			this.byteArrayValue = bytes;
+			this.byteArrayLoaded = true;
+		}
+
+		@Override
+		public String getTextValue()
+		{
+			return textValue;
+		}
+
+		@Override
+		public void setTextValue(String textValue)
+		{
+			this.textValue = textValue;
+		}
+
+		@Override
+		public String getTextValue2()
+		{
+			return textValue2;
+		}
+
+		@Override
+		public void setTextValue2(String textValue2)
+		{
+			this.textValue2 = textValue2;
+		}
+
+		@Override
+		public Long getLongValue()
+		{
+			return longValue;
+		}
+
+		@Override
+		public void setLongValue(Long longValue)
+		{
+			this.longValue = longValue;
+		}
+
+		@Override
+		public Double getDoubleValue()
+		{
+			return doubleValue;
+		}
+
+		@Override
+		public void setDoubleValue(Double doubleValue)
+		{
+			this.doubleValue = doubleValue;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.persistence.entity.VariableInstanceEntity;
+import org.camunda.bpm.engine.runtime.ProcessInstance;
+import org.camunda.bpm.engine.test.Deployment;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamingVariableReaderTest
+{
+	private static final int INSTANCES = 25;
+	private static final Instant INSTANT = Instant.ofEpochSecond(1234567890).plusMillis(123);
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void shouldStreamVariablesWithoutImplicitUpdates()
+	{
+		List<String> instanceIds = IntStream.rangeClosed(1, INSTANCES)
+				.mapToObj(this::startInstance)
+				.map(ProcessInstance::getId)
+				.collect(Collectors.toList());
+
+		Map<String, Object> values = new HashMap<>();
+
+		long count = new StreamingVariableReader(extension.getProcessEngineConfiguration())
+				.processInstanceIds(instanceIds)
+				.batchSize(10)
+				.forEach(variable ->
+				{
+					assertThat(instanceIds).contains(variable.getProcessInstanceId());
+					values.put(variable.getProcessInstanceId() + "/" + variable.getName(), variable.getValue());
+				});
+
+		assertThat(count).isEqualTo(INSTANCES * 3L);
+		assertThat(values).hasSize(INSTANCES * 3);
+		assertThat(values.get(instanceIds.get(0) + "/instant")).isEqualTo(INSTANT);
+		assertThat(values.get(instanceIds.get(0) + "/counter")).isEqualTo(1L);
+		assertThat(values.get(instanceIds.get(0) + "/name")).isEqualTo("instance-1");
+
+		// reading the instant through a VariableInstanceEntity would have caused a spurious update
+		VariableInstanceEntity instant = (VariableInstanceEntity) extension.getRuntimeService()
+				.createVariableInstanceQuery()
+				.processInstanceIdIn(instanceIds.get(0))
+				.variableName("instant")
+				.disableCustomObjectDeserialization()
+				.singleResult();
+
+		assertThat(instant.getRevision()).isEqualTo(1);
+	}
+
+	@Test
+	@Deployment(resources = {"testProcess.bpmn"})
+	public void shouldFilterByVariableName()
+	{
+		String instanceId = startInstance(1).getId();
+
+		List<String> names = new ArrayList<>();
+
+		new StreamingVariableReader(extension.getProcessEngineConfiguration())
+				.processInstanceIds(Collections.singletonList(instanceId))
+				.variableNames("name", "counter")
+				.forEach(variable -> names.add(variable.getName()));
+
+		assertThat(names).containsExactlyInAnyOrder("name", "counter");
+	}
+
+	private ProcessInstance startInstance(int i)
+	{
+		Map<String, Object> variables = new HashMap<>();
+		variables.put("instant", INSTANT);
+		variables.put("counter", (long) i);
+		variables.put("name", "instance-" + i);
+		return extension.getRuntimeService().startProcessInstanceByKey("testProcess", "stream-test-" + i, variables);
+	}
+}
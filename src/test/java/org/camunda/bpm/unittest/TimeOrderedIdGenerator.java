@@ -0,0 +1,71 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.cfg.IdGenerator;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * IdGenerator producing time-ordered, UUIDv7-style ids without any database round trips.
+ * <p>
+ * Layout (RFC 9562, version 7):
+ * <pre>
+ * 48 bits unix timestamp in millis | 4 bits version | 12 bits counter | 2 bits variant | 62 bits random
+ * </pre>
+ * Every thread keeps its own timestamp and counter, so no state is shared between threads. Within a thread,
+ * the counter is seeded randomly in its lower half whenever the millisecond changes and incremented otherwise,
+ * which keeps the ids of a thread strictly increasing. When the counter overflows, or the clock goes backwards,
+ * the thread keeps using its last timestamp plus one. Ids of different threads created in the same millisecond
+ * are not ordered relative to each other but remain unique through the random bits.
+ * <p>
+ * Compared to the DbIdGenerator, threads never block on fetching id blocks. Compared to random UUIDs, new ids
+ * are always appended near the right edge of primary key indexes instead of splitting random index pages.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator
+{
+	private static final int COUNTER_BITS = 12;
+	private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+	private static final int COUNTER_SEED_BOUND = 1 << (COUNTER_BITS - 1);
+
+	private static final long VERSION = 0x7L << COUNTER_BITS;
+	private static final long VARIANT = 0x2L << 62;
+	private static final long RANDOM_MASK = (1L << 62) - 1;
+
+	private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+	@Override
+	public String getNextId()
+	{
+		return nextUuid().toString();
+	}
+
+	public UUID nextUuid()
+	{
+		State state = STATE.get();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		long now = System.currentTimeMillis();
+		if (now > state.millis)
+		{
+			state.millis = now;
+			state.counter = random.nextInt(COUNTER_SEED_BOUND);
+		}
+		else if (++state.counter > COUNTER_MAX)
+		{
+			// counter exhausted (or clock went backwards), borrow the next millisecond
+			state.millis++;
+			state.counter = random.nextInt(COUNTER_SEED_BOUND);
+		}
+
+		long msb = (state.millis << 16) | VERSION | state.counter;
+		long lsb = VARIANT | (random.nextLong() & RANDOM_MASK);
+
+		return new UUID(msb, lsb);
+	}
+
+	private static class State
+	{
+		private long millis = -1;
+		private int counter;
+	}
+}
@@ -0,0 +1,319 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.impl.ProcessEngineImpl;
+import org.camunda.bpm.engine.impl.interceptor.CommandExecutor;
+import org.camunda.bpm.engine.impl.jobexecutor.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Job executor which runs each batch of acquired jobs on its own virtual thread, for jobs which spend most
+ * of their time blocked on JDBC or HTTP calls.
+ * <p>
+ * Virtual threads need JDK 21. They are looked up reflectively, so the class still runs on older JDKs,
+ * where it falls back to a cached pool of platform threads (see {@link #isVirtual()}).
+ * <p>
+ * Instead of the thread pool queue of the {@link DefaultJobExecutor}, at most 'maxConcurrentJobs' jobs are
+ * in flight. Batches beyond that are rejected and handed to the {@link RejectedJobsHandler} like with a full
+ * pool. A job holds a database connection for its whole execution, including any HTTP call it makes, so
+ * unless 'maxConcurrentJobs' is set, it is derived from 'jdbcMaxActiveConnections' of the registered engines,
+ * leaving a few connections for acquisition and API calls. Running more jobs than there are connections only
+ * makes them queue in the connection pool. To benefit from cheap threads, size the connection pool instead.
+ * <p>
+ * The number of jobs acquired per cycle adapts to the executor:
+ * <ul>
+ * <li>it never exceeds the free capacity, so acquired jobs are not locked only to be rejected. While all
+ * capacity is in use, no jobs are acquired and the acquisition waits for the saturation wait time, and</li>
+ * <li>it is scaled by the recent success rate of the jobs, so the executor does not keep a failing
+ * downstream system busy with retries at full concurrency.</li>
+ * </ul>
+ * The backoff on optimistic locking failures of the default acquisition strategy still applies.
+ */
+public class VirtualThreadJobExecutor extends JobExecutor
+{
+	private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadJobExecutor.class);
+
+	// weight of the latest job in the success rate
+	private static final double SUCCESS_RATE_WEIGHT = 0.05;
+
+	// connections left to the acquisition thread and API calls when deriving the concurrency
+	private static final int RESERVED_CONNECTIONS = 2;
+
+	private int maxConcurrentJobs;
+
+	private ExecutorService executor;
+	private boolean virtual;
+	private volatile int concurrencyLimit;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	// bits of the success rate, updated without a lock since jobs still finish while shutdown holds the executor's monitor
+	private final AtomicLong successRateBits = new AtomicLong(Double.doubleToLongBits(1.0));
+
+	public VirtualThreadJobExecutor()
+	{
+		maxJobsPerAcquisition = 64;
+		rejectedJobsHandler = new NotifyAcquisitionRejectedJobsHandler();
+	}
+
+	@Override
+	protected void ensureInitialization()
+	{
+		super.ensureInitialization();
+		acquireJobsRunnable = new AdaptiveAcquisitionRunnable();
+	}
+
+	@Override
+	protected void startExecutingJobs()
+	{
+		if (executor == null || executor.isShutdown())
+		{
+			executor = createVirtualThreadExecutor();
+			virtual = executor != null;
+			if (executor == null)
+			{
+				// bounded by the concurrency limit, not by the pool
+				executor = Executors.newCachedThreadPool();
+			}
+		}
+
+		concurrencyLimit = resolveConcurrencyLimit();
+
+		startJobAcquisitionThread();
+	}
+
+	@Override
+	protected void stopExecutingJobs()
+	{
+		stopJobAcquisitionThread();
+
+		executor.shutdown();
+		try
+		{
+			if (!executor.awaitTermination(60L, TimeUnit.SECONDS))
+			{
+				LOG.warn("Timeout during shutdown of job executor, jobs still running");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static ExecutorService createVirtualThreadExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return null;
+		}
+	}
+
+	private int resolveConcurrencyLimit()
+	{
+		if (maxConcurrentJobs > 0)
+		{
+			return maxConcurrentJobs;
+		}
+
+		int connections = Integer.MAX_VALUE;
+		for (ProcessEngineImpl processEngine : processEngines)
+		{
+			connections = Math.min(connections, processEngine.getProcessEngineConfiguration().getJdbcMaxActiveConnections());
+		}
+		return connections == Integer.MAX_VALUE ? 1 : Math.max(1, connections - RESERVED_CONNECTIONS);
+	}
+
+	@Override
+	public void executeJobs(List<String> jobIds, ProcessEngineImpl processEngine)
+	{
+		int jobs = jobIds.size();
+		if (inFlight.addAndGet(jobs) > concurrencyLimit)
+		{
+			inFlight.addAndGet(-jobs);
+			reject(jobIds, processEngine);
+			return;
+		}
+
+		try
+		{
+			executor.execute(getExecuteJobsRunnable(jobIds, processEngine));
+		}
+		catch (RejectedExecutionException e)
+		{
+			inFlight.addAndGet(-jobs);
+			reject(jobIds, processEngine);
+		}
+	}
+
+	private void reject(List<String> jobIds, ProcessEngineImpl processEngine)
+	{
+		logRejectedExecution(processEngine, jobIds.size());
+		rejectedJobsHandler.jobsRejected(jobIds, processEngine, this);
+	}
+
+	@Override
+	public Runnable getExecuteJobsRunnable(List<String> jobIds, ProcessEngineImpl processEngine)
+	{
+		return new TrackingExecuteJobsRunnable(jobIds, processEngine);
+	}
+
+	private void recordResult(boolean success)
+	{
+		(success ? succeeded : failed).incrementAndGet();
+
+		double result = success ? 1.0 : 0.0;
+		long bits;
+		double updated;
+		do
+		{
+			bits = successRateBits.get();
+			double successRate = Double.longBitsToDouble(bits);
+			updated = successRate + SUCCESS_RATE_WEIGHT * (result - successRate);
+		}
+		while (!successRateBits.compareAndSet(bits, Double.doubleToLongBits(updated)));
+	}
+
+	/**
+	 * @return the number of jobs to acquire in the next cycle, based on the free capacity and success rate.
+	 * 0 if all capacity is in use, which makes the acquisition skip the cycle.
+	 */
+	int getAdaptiveNumJobsToAcquire(int numJobsToAcquire)
+	{
+		int free = concurrencyLimit - inFlight.get();
+		if (free <= 0)
+		{
+			return 0;
+		}
+		int adaptive = (int) Math.ceil(free * getSuccessRate());
+		return Math.max(1, Math.min(numJobsToAcquire, adaptive));
+	}
+
+	boolean isSaturated()
+	{
+		return inFlight.get() >= concurrencyLimit;
+	}
+
+	/**
+	 * @return whether jobs run on virtual threads. Only known after the executor has been started.
+	 */
+	public boolean isVirtual()
+	{
+		return virtual;
+	}
+
+	/**
+	 * @return the maximum number of jobs in flight. Only known after the executor has been started.
+	 */
+	public int getConcurrencyLimit()
+	{
+		return concurrencyLimit;
+	}
+
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+
+	public double getSuccessRate()
+	{
+		return Double.longBitsToDouble(successRateBits.get());
+	}
+
+	public long getJobsSucceeded()
+	{
+		return succeeded.get();
+	}
+
+	public long getJobsFailed()
+	{
+		return failed.get();
+	}
+
+	public int getMaxConcurrentJobs()
+	{
+		return maxConcurrentJobs;
+	}
+
+	public void setMaxConcurrentJobs(int maxConcurrentJobs)
+	{
+		this.maxConcurrentJobs = maxConcurrentJobs;
+	}
+
+	private class AdaptiveAcquisitionRunnable extends SequentialJobAcquisitionRunnable
+	{
+		AdaptiveAcquisitionRunnable()
+		{
+			super(VirtualThreadJobExecutor.this);
+		}
+
+		@Override
+		protected JobAcquisitionStrategy initializeAcquisitionStrategy()
+		{
+			return new BackoffJobAcquisitionStrategy(VirtualThreadJobExecutor.this)
+			{
+				@Override
+				public int getNumJobsToAcquire(String processEngine)
+				{
+					return getAdaptiveNumJobsToAcquire(super.getNumJobsToAcquire(processEngine));
+				}
+
+				@Override
+				public long getWaitTime()
+				{
+					// a skipped cycle does not count as saturated, so wait for running jobs instead of polling
+					return isSaturated() ? Math.max(super.getWaitTime(), executionSaturationWaitTime) : super.getWaitTime();
+				}
+			};
+		}
+	}
+
+	private class TrackingExecuteJobsRunnable extends ExecuteJobsRunnable
+	{
+		TrackingExecuteJobsRunnable(List<String> jobIds, ProcessEngineImpl processEngine)
+		{
+			super(jobIds, processEngine);
+			// the base class uses the job executor of the engine configuration, which may be a different one
+			this.jobExecutor = VirtualThreadJobExecutor.this;
+		}
+
+		@Override
+		public void run()
+		{
+			int jobs = jobIds.size();
+			try
+			{
+				super.run();
+			}
+			finally
+			{
+				inFlight.addAndGet(-jobs);
+			}
+		}
+
+		@Override
+		protected void executeJob(String nextJobId, CommandExecutor commandExecutor, JobFailureCollector jobFailureCollector)
+		{
+			boolean success = false;
+			try
+			{
+				super.executeJob(nextJobId, commandExecutor, jobFailureCollector);
+				success = jobFailureCollector.getFailure() == null;
+			}
+			finally
+			{
+				recordResult(success);
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.camunda.bpm.unittest;
+
+import org.camunda.bpm.engine.ManagementService;
+import org.camunda.bpm.engine.RuntimeService;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.camunda.bpm.engine.delegate.JavaDelegate;
+import org.camunda.bpm.engine.impl.ProcessEngineImpl;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.jobexecutor.JobExecutor;
+import org.camunda.bpm.engine.impl.jobexecutor.NotifyAcquisitionRejectedJobsHandler;
+import org.camunda.bpm.engine.impl.persistence.entity.JobEntity;
+import org.camunda.bpm.engine.test.junit5.ProcessEngineExtension;
+import org.camunda.bpm.model.bpmn.Bpmn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadJobExecutorTest
+{
+	private static final String PROCESS_KEY = "blockingProcess";
+	private static final int CONCURRENCY = 2;
+	private static final int JOBS = 6;
+
+	private static final Semaphore RELEASED = new Semaphore(0);
+	private static final AtomicInteger STARTED = new AtomicInteger();
+
+	@RegisterExtension
+	static ProcessEngineExtension extension = ProcessEngineExtension.builder().build();
+
+	@Test
+	public void shouldNotAcquireJobsWhileSaturated() throws Exception
+	{
+		ProcessEngineConfigurationImpl configuration = extension.getProcessEngineConfiguration();
+		ProcessEngineImpl processEngine = (ProcessEngineImpl) extension.getProcessEngine();
+		RuntimeService runtimeService = extension.getRuntimeService();
+		ManagementService managementService = extension.getManagementService();
+
+		String deploymentId = extension.getRepositoryService()
+				.createDeployment()
+				.addModelInstance(PROCESS_KEY + ".bpmn", Bpmn.createExecutableProcess(PROCESS_KEY)
+						.startEvent()
+						.serviceTask()
+						.camundaAsyncBefore()
+						.camundaClass(BlockingDelegate.class.getName())
+						.endEvent()
+						.done())
+				.deploy()
+				.getId();
+
+		for (int i = 0; i < JOBS; i++)
+		{
+			runtimeService.startProcessInstanceByKey(PROCESS_KEY);
+		}
+
+		AtomicInteger rejected = new AtomicInteger();
+		VirtualThreadJobExecutor jobExecutor = new VirtualThreadJobExecutor();
+		jobExecutor.setMaxConcurrentJobs(CONCURRENCY);
+		jobExecutor.setWaitTimeInMillis(50);
+		jobExecutor.setRejectedJobsHandler((jobIds, engine, executor) ->
+		{
+			rejected.addAndGet(jobIds.size());
+			new NotifyAcquisitionRejectedJobsHandler().jobsRejected(jobIds, engine, executor);
+		});
+		jobExecutor.registerProcessEngine(processEngine);
+
+		JobExecutor originalJobExecutor = configuration.getJobExecutor();
+		configuration.setJobExecutor(jobExecutor);
+		try
+		{
+			jobExecutor.start();
+
+			await(() -> STARTED.get() == CONCURRENCY);
+			// give the acquisition a few saturated cycles
+			Thread.sleep(500);
+
+			assertThat(rejected.get()).isZero();
+			assertThat(STARTED.get()).isEqualTo(CONCURRENCY);
+			assertThat(managementService.createJobQuery().list())
+					.filteredOn(job -> ((JobEntity) job).getLockOwner() != null)
+					.hasSize(CONCURRENCY);
+
+			// no job is stranded with a lock, so all of them complete once the running ones are released
+			RELEASED.release(JOBS);
+			await(() -> runtimeService.createProcessInstanceQuery().processDefinitionKey(PROCESS_KEY).count() == 0);
+
+			assertThat(rejected.get()).isZero();
+			assertThat(jobExecutor.getJobsSucceeded()).isEqualTo(JOBS);
+		}
+		finally
+		{
+			RELEASED.release(JOBS);
+			jobExecutor.shutdown();
+			jobExecutor.unregisterProcessEngine(processEngine);
+			configuration.setJobExecutor(originalJobExecutor);
+			extension.getRepositoryService().deleteDeployment(deploymentId, true);
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean())
+		{
+			assertThat(System.currentTimeMillis()).as("condition met in time").isLessThan(deadline);
+			Thread.sleep(20);
+		}
+	}
+
+	public static class BlockingDelegate implements JavaDelegate
+	{
+		@Override
+		public void execute(DelegateExecution execution) throws Exception
+		{
+			STARTED.incrementAndGet();
+			if (!RELEASED.tryAcquire(30, TimeUnit.SECONDS))
+			{
+				throw new IllegalStateException("Job was not released");
+			}
+		}
+	}
+}